@@ -1,219 +1,176 @@
 package myDDS;
 
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.*;
 
 /**
  * DDS implementation for ABD algorithm (Question 3)
  * Implements quorum-based read and write with two phases each
+ * Gateways run many operations concurrently (see ABD_Gateway, ABD_Operation)
  */
 public class ABD_DDS {
     int nbReplicas;
     ABD_Replica[] replicas;
     Channel[] channels; // Channels TO replicas (for requests)
-    Channel[] responseChannels; // Channels FROM replicas (for responses)
-    Thread gateway;
+    // Independent coordinators; clients are spread over them
+    ABD_Gateway[] gateways;
     ConcurrentSkipListSet<ClientData> clients;
-
-    // Quorum size: majority (N/2 + 1)
-    int quorumSize;
+    private int nextGateway = 0;
+    private final AtomicInteger runningGateways;
+
+    // Read and write quorums (default: majorities, N/2 + 1)
+    ABD_QuorumSystem quorums;
+
+    // Fast reads: return after Phase 1 when the replies carrying the highest
+    // timestamp weigh a write quorum (the value is then already stored by a
+    // write quorum)
+    boolean fastReads = false;
+    // Single-writer mode: each register is written by one gateway only,
+    // in one round trip once that gateway owns the register's counter
+    boolean singleWriter = false;
+    // Timeouts: a phase still without a quorum after phaseTimeoutNs is sent
+    // again to the replicas that did not answer, at most maxRetries times,
+    // then the operation fails (0: wait forever)
+    long phaseTimeoutNs = 0;
+    int maxRetries = 0;
+    // Hedging: a phase is first sent to a quorum only, then to the other
+    // replicas if it has no quorum after hedgeDelayNs (0: sent to all)
+    long hedgeDelayNs = 0;
+    // Read leases: a gateway holding a lease from a quorum on a register
+    // reads it locally until the lease expires, leaseDriftNs before the
+    // replicas consider it expired (0: no leases)
+    long leaseNs = 0;
+    long leaseDriftNs = 0;
 
     public ABD_DDS(int nbReplicas) {
+        this(nbReplicas, 1);
+    }
+
+    public ABD_DDS(int nbReplicas, int nbGateways) {
         this.nbReplicas = nbReplicas;
-        this.quorumSize = (nbReplicas / 2) + 1;
+        this.quorums = ABD_QuorumSystem.majority(nbReplicas);
 
-        System.out.println("ABD_DDS: " + nbReplicas + " replicas, quorum size = " + quorumSize);
+        System.out.println("ABD_DDS: " + nbReplicas + " replicas, " + quorums + ", " +
+                nbGateways + " gateway(s)");
 
         channels = new Channel[nbReplicas];
-        responseChannels = new Channel[nbReplicas];
         replicas = new ABD_Replica[nbReplicas];
         clients = new ConcurrentSkipListSet<ClientData>();
 
         // ABD uses Bag (unordered) channels
         for (int i = 0; i < nbReplicas; i++) {
             channels[i] = new ChannelBag();
-            responseChannels[i] = new ChannelBag();
-            replicas[i] = new ABD_Replica(i, this, responseChannels[i]);
+            replicas[i] = new ABD_Replica(i, this);
         }
 
-        gateway = new Thread(() -> {
-            while (true) {
-                Iterator<ClientData> iterator = clients.iterator();
-                while (iterator.hasNext()) {
-                    ClientData client = iterator.next();
-                    if (!client.inChannel.isEmpty()) {
-                        Message clientRequest = client.inChannel.receive();
-
-                        if (clientRequest.isStop()) {
-                            // Stop all replicas
-                            for (int i = 0; i < nbReplicas; i++) {
-                                channels[i].send(clientRequest);
-                            }
-                            System.out.println("ABD_DDS: Stopping the system");
-                            return;
-                        } else {
-                            // Handle read or write request
-                            handleClientRequest(clientRequest);
-                        }
-                    }
-                }
-            }
-        });
+        gateways = new ABD_Gateway[nbGateways];
+        for (int g = 0; g < nbGateways; g++) {
+            gateways[g] = new ABD_Gateway(g, this);
+        }
+        runningGateways = new AtomicInteger(nbGateways);
     }
 
     /**
-     * Handle client request using ABD algorithm
+     * Use weighted read and write quorums (before start()); throws
+     * IllegalArgumentException if they do not intersect
      */
-    private void handleClientRequest(Message request) {
-        if (request.type == Message.MessageType.CLIENT_WR_REQ) {
-            handleWrite(request);
-        } else if (request.type == Message.MessageType.CLIENT_RD_REQ) {
-            handleRead(request);
+    public void setQuorumSystem(int[] weights, int readQuorum, int writeQuorum) {
+        if (weights.length != nbReplicas) {
+            throw new IllegalArgumentException(weights.length + " weights for " + nbReplicas + " replicas");
         }
+        this.quorums = new ABD_QuorumSystem(weights, readQuorum, writeQuorum);
+        System.out.println("ABD_DDS: " + quorums);
     }
 
     /**
-     * ABD Write Operation (2 phases):
-     * Phase 1: QUERY all replicas to get highest timestamp
-     * Phase 2: UPDATE all replicas with new value and incremented timestamp
+     * Enable or disable fast reads (before start())
      */
-    private void handleWrite(Message request) {
-        System.out.println("\n[ABD WRITE] Starting write: " + request.register + "=" + request.val);
-
-        // Phase 1: Query to find highest timestamp
-        System.out.println("[ABD WRITE Phase 1] Querying all replicas for current timestamp");
-        ABD_Message queryMsg = new ABD_Message(
-                ABD_Message.ABD_MessageType.QUERY,
-                request.meta,
-                request.register);
-
-        List<ABD_Message> queryReplies = broadcastAndCollectQuorum(queryMsg);
-
-        // Find highest timestamp
-        Timestamp maxTs = new Timestamp(0, 0);
-        for (ABD_Message reply : queryReplies) {
-            if (reply.timestamp != null && reply.timestamp.isGreaterThan(maxTs)) {
-                maxTs = reply.timestamp;
-            }
-        }
-        System.out.println("[ABD WRITE Phase 1] Highest timestamp found: " + maxTs);
-
-        // Phase 2: Update with new timestamp
-        Timestamp newTs = new Timestamp(maxTs.counter + 1, replicas[0].id); // Use replica 0's ID
-        System.out.println("[ABD WRITE Phase 2] Updating all replicas with new timestamp: " + newTs);
-
-        ABD_Message updateMsg = new ABD_Message(
-                ABD_Message.ABD_MessageType.UPDATE,
-                request.meta,
-                request.register,
-                request.val,
-                newTs);
+    public void setFastReads(boolean fastReads) {
+        this.fastReads = fastReads;
+    }
 
-        List<ABD_Message> updateAcks = broadcastAndCollectQuorum(updateMsg);
+    /**
+     * Enable or disable single-writer mode (before start())
+     */
+    public void setSingleWriterMode(boolean singleWriter) {
+        this.singleWriter = singleWriter;
+    }
 
-        System.out.println("[ABD WRITE] Write complete! Received " + updateAcks.size() + " acks");
+    /**
+     * Retry a phase without a quorum every "phaseTimeoutMs", and fail the
+     * operation after "maxRetries" retries (before start())
+     */
+    public void setTimeouts(long phaseTimeoutMs, int maxRetries) {
+        this.phaseTimeoutNs = phaseTimeoutMs * 1_000_000L;
+        this.maxRetries = maxRetries;
+    }
 
-        // Send ACK to client
-        Message ack = new Message(Message.MessageType.REPLICA_WR_ACK);
-        request.meta.outChannel.send(ack);
+    /**
+     * Send each phase to a quorum first, and to every replica after
+     * "hedgeDelayMs" without a quorum (before start())
+     */
+    public void setHedging(long hedgeDelayMs) {
+        this.hedgeDelayNs = hedgeDelayMs * 1_000_000L;
     }
 
     /**
-     * ABD Read Operation (2 phases):
-     * Phase 1: QUERY all replicas to get value with highest timestamp
-     * Phase 2: UPDATE (write-back) to propagate the latest value
+     * Grant read leases of "leaseMs", considered expired by their holders
+     * "driftBoundMs" early to absorb clock drift (before start())
      */
-    private void handleRead(Message request) {
-        System.out.println("\n[ABD READ] Starting read: " + request.register);
-
-        // Phase 1: Query to find value with highest timestamp
-        System.out.println("[ABD READ Phase 1] Querying all replicas");
-        ABD_Message queryMsg = new ABD_Message(
-                ABD_Message.ABD_MessageType.QUERY,
-                request.meta,
-                request.register);
-
-        List<ABD_Message> queryReplies = broadcastAndCollectQuorum(queryMsg);
-
-        // Find value with highest timestamp
-        String maxValue = "UNDEF";
-        Timestamp maxTs = new Timestamp(0, 0);
-        for (ABD_Message reply : queryReplies) {
-            if (reply.timestamp != null && reply.timestamp.isGreaterThan(maxTs)) {
-                maxTs = reply.timestamp;
-                maxValue = reply.val;
-            }
+    public void setReadLeases(long leaseMs, long driftBoundMs) {
+        if (driftBoundMs >= leaseMs) {
+            throw new IllegalArgumentException("drift bound " + driftBoundMs + " ms >= lease " + leaseMs + " ms");
         }
-        System.out.println("[ABD READ Phase 1] Highest value found: " + maxValue + " with timestamp " + maxTs);
-
-        // Phase 2: Write-back to help lagging replicas
-        System.out.println("[ABD READ Phase 2] Writing back to propagate latest value");
-        ABD_Message updateMsg = new ABD_Message(
-                ABD_Message.ABD_MessageType.UPDATE,
-                request.meta,
-                request.register,
-                maxValue,
-                maxTs);
-
-        List<ABD_Message> updateAcks = broadcastAndCollectQuorum(updateMsg);
-
-        System.out.println("[ABD READ] Read complete! Returning value: " + maxValue);
-
-        // Send value to client
-        Message response = new Message(Message.MessageType.REPLICA_RD_ACK, request.register, maxValue);
-        request.meta.outChannel.send(response);
+        this.leaseNs = leaseMs * 1_000_000L;
+        this.leaseDriftNs = driftBoundMs * 1_000_000L;
     }
 
     /**
-     * Broadcast a message to all replicas and wait for quorum responses
+     * In single-writer mode, the gateway writing "register"
      */
-    private List<ABD_Message> broadcastAndCollectQuorum(ABD_Message msg) {
-        // Broadcast to all replicas
-        for (int i = 0; i < nbReplicas; i++) {
-            channels[i].send(msg);
-        }
+    ABD_Gateway homeGateway(String register) {
+        int h = register.hashCode();
+        h ^= (h >>> 16);
+        return gateways[Math.floorMod(h, gateways.length)];
+    }
 
-        // Determine expected response type
-        ABD_Message.ABD_MessageType expectedType;
-        if (msg.abdType == ABD_Message.ABD_MessageType.QUERY) {
-            expectedType = ABD_Message.ABD_MessageType.QUERY_REPLY;
-        } else if (msg.abdType == ABD_Message.ABD_MessageType.UPDATE) {
-            expectedType = ABD_Message.ABD_MessageType.UPDATE_ACK;
-        } else {
-            throw new IllegalArgumentException("Unexpected message type: " + msg.abdType);
+    /**
+     * Gateway "from" received a stop: every gateway stops once its
+     * operations in progress are complete
+     */
+    void stopGateways(int from) {
+        for (ABD_Gateway gateway : gateways) {
+            if (gateway.id != from) {
+                gateway.inbox.send(new Message(Message.MessageType.CLIENT_STOP));
+            }
         }
+    }
 
-        // Collect quorum responses
-        List<ABD_Message> responses = new ArrayList<>();
-        Set<Integer> respondedReplicas = new HashSet<>();
-
-        // Wait for quorum responses from responseChannels
-        while (responses.size() < quorumSize) {
+    /**
+     * The last gateway to stop stops the replicas
+     */
+    void gatewayStopped() {
+        if (runningGateways.decrementAndGet() == 0) {
             for (int i = 0; i < nbReplicas; i++) {
-                if (!respondedReplicas.contains(i) && !responseChannels[i].isEmpty()) {
-                    Message response = responseChannels[i].receive();
-                    if (response instanceof ABD_Message) {
-                        ABD_Message abdResponse = (ABD_Message) response;
-                        // Only accept messages of the expected type
-                        if (abdResponse.abdType == expectedType) {
-                            responses.add(abdResponse);
-                            respondedReplicas.add(i);
-                            if (responses.size() >= quorumSize) {
-                                break;
-                            }
-                        }
-                        // Ignore messages of unexpected type (leftover from previous operations)
-                    }
-                }
+                channels[i].send(new Message(Message.MessageType.CLIENT_STOP));
             }
+            System.out.println("ABD_DDS: Stopping the system");
         }
+    }
 
-        return responses;
+    /**
+     * A replica sends its reply to the gateway of the request
+     */
+    void reply(ABD_Message request, ABD_Message reply) {
+        gateways[request.gatewayId].inbox.send(reply);
     }
 
     // Network communication methods
     public void start() {
-        gateway.start();
+        for (ABD_Gateway gateway : gateways) {
+            gateway.start();
+        }
         for (int i = 0; i < nbReplicas; i++) {
             replicas[i].start();
         }
@@ -223,15 +180,30 @@ public class ABD_DDS {
         for (int i = 0; i < nbReplicas; i++) {
             replicas[i].join();
         }
-        gateway.join();
+        for (ABD_Gateway gateway : gateways) {
+            gateway.join();
+        }
     }
 
+    /**
+     * Returns the channel in which the client sends its requests: the inbox
+     * of the gateway it is assigned to (round robin)
+     */
     public synchronized ChannelFIFO connect(int clientId, ChannelFIFO outChannel) {
-        ChannelFIFO inChannel = new ChannelFIFO();
-        ClientData cd = new ClientData(clientId, inChannel, outChannel);
+        ABD_Gateway gateway = gateways[nextGateway];
+        nextGateway = (nextGateway + 1) % gateways.length;
+        ClientData cd = new ClientData(clientId, gateway.inbox, outChannel);
         clients.add(cd);
-        System.out.println("ABD_DDS: Connection established with client " + clientId);
-        return inChannel;
+        System.out.println("ABD_DDS: Connection established with client " + clientId + " on gateway " + gateway.id);
+        return gateway.inbox;
+    }
+
+    /**
+     * Connect client "clientId" through a session that pipelines its requests
+     */
+    public ClientSession openSession(int clientId) {
+        ChannelFIFO responseChannel = new ChannelFIFO();
+        return new ClientSession(clientId, connect(clientId, responseChannel), responseChannel, 1);
     }
 
     public void send(Message message, int destination) {
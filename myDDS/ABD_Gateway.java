@@ -0,0 +1,339 @@
+package myDDS;
+
+import java.util.*;
+
+/**
+ * Gateway (protocol coordinator) of the ABD algorithm.
+ * Several gateways can run over the same set of ABD_Replica: each one has
+ * its own writer id in the timestamps it issues and its own inbox, where
+ * its clients send their requests and the replicas send their replies.
+ * The gateway blocks on its inbox and routes every reply to its operation
+ * by operation id (see ABD_Operation).
+ * The messages to the replicas produced while handling the inbox backlog are
+ * sent together, as one BATCH per replica, and the replicas answer each
+ * batch with a single reply.
+ * With read leases, a read on a register leased from a quorum is answered
+ * from the gateway until the lease expires or a replica revokes it.
+ * With timeouts or hedging configured, the gateway also wakes up every
+ * TICK_MS while operations are in progress to let them retry or hedge.
+ */
+public class ABD_Gateway extends Thread {
+    // Most inbox messages handled, and replica messages batched, at once
+    static final int MAX_BATCH = 64;
+    // Timer resolution of the timeouts and hedging
+    static final long TICK_MS = 1;
+
+    final int id; // also the writer id in the timestamps issued here
+    final ABD_DDS dds;
+    // Completion queue of the gateway: replica replies and client requests
+    final ChannelFIFO inbox;
+
+    // Operations in progress, by operation id (gateway thread only)
+    private final HashMap<Long, ABD_Operation> pendingOps;
+    private long nextOpId = 1;
+    private boolean stopping = false;
+    long completedOps = 0;
+    int maxInFlight = 0;
+    long fastPathReads = 0;
+    long writeBackReads = 0;
+    long forwardedWrites = 0;
+    long hedgedPhases = 0;
+    long retriedPhases = 0;
+    long failedOps = 0;
+
+    // Read leases held, by register, and the number of times the lease of
+    // each register was invalidated (a read installs its lease only if no
+    // invalidation happened since it queried the replicas)
+    private final HashMap<String, ReadLease> leases;
+    private final HashMap<String, Integer> leaseInvalidations;
+    long leaseReads = 0;
+    long leasesInstalled = 0;
+    long leasesRevoked = 0;
+
+    private static class ReadLease {
+        final String value;
+        final long expiry; // System.nanoTime()
+
+        ReadLease(String value, long expiry) {
+            this.value = value;
+            this.expiry = expiry;
+        }
+    }
+
+    // Messages to each replica not sent yet (sent at the next flush)
+    private final ArrayList<ABD_Message>[] outboxes;
+    private long nextBatchId = 1;
+    long sentMessages = 0;
+    long sentBatches = 0;
+
+    // Highest counter issued or observed per register, so that concurrent
+    // writes never share a timestamp
+    private final HashMap<String, Integer> lastCounters;
+    // Single-writer mode: registers whose counter the gateway owns, written
+    // in one round trip; a register written by another writer is contended
+    // and goes back to the two-phase path for good
+    private final HashSet<String> ownedRegisters;
+    private final HashSet<String> contendedRegisters;
+    long singleRoundWrites = 0;
+    long twoPhaseWrites = 0;
+
+    public ABD_Gateway(int id, ABD_DDS dds) {
+        this.id = id;
+        this.dds = dds;
+        this.inbox = new ChannelFIFO();
+        this.pendingOps = new HashMap<>();
+        this.lastCounters = new HashMap<>();
+        this.ownedRegisters = new HashSet<>();
+        this.contendedRegisters = new HashSet<>();
+        this.outboxes = newOutboxes(dds.nbReplicas);
+        this.leases = new HashMap<>();
+        this.leaseInvalidations = new HashMap<>();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayList<ABD_Message>[] newOutboxes(int nbReplicas) {
+        ArrayList<ABD_Message>[] outboxes = new ArrayList[nbReplicas];
+        for (int i = 0; i < nbReplicas; i++) {
+            outboxes[i] = new ArrayList<>();
+        }
+        return outboxes;
+    }
+
+    public void run() {
+        while (true) {
+            // Handle the backlog of the inbox, then send what it produced
+            boolean timed = !pendingOps.isEmpty() && (dds.phaseTimeoutNs > 0 || dds.hedgeDelayNs > 0);
+            Message m = timed ? inbox.receive(TICK_MS) : inbox.receive();
+            if (m != null) {
+                int handled = 1;
+                handle(m);
+                while (handled < MAX_BATCH && !inbox.isEmpty()) {
+                    handle(inbox.receive());
+                    handled++;
+                }
+            }
+            if (timed) {
+                checkTimers();
+            }
+            flush();
+
+            if (stopping && pendingOps.isEmpty()) {
+                System.out.println("ABD gateway " + id + ": stopping (" + dds.quorums + ", " + completedOps + " operations, at most " +
+                        maxInFlight + " in flight, reads: " + fastPathReads + " fast path / " +
+                        (fastPathReads + writeBackReads) + ", writes: " + singleRoundWrites +
+                        " single round / " + (singleRoundWrites + twoPhaseWrites) + ", " + forwardedWrites +
+                        " forwarded, " + failedOps + " failed, " + retriedPhases + " phases retried, " +
+                        hedgedPhases + " hedged, " + leaseReads + " lease reads, " + leasesInstalled +
+                        " leases installed, " + leasesRevoked + " revoked, " + sentMessages + " replica messages in " + sentBatches +
+                        " network messages)");
+                dds.gatewayStopped();
+                return;
+            }
+        }
+    }
+
+    private void handle(Message m) {
+        if (m instanceof ABD_Message) {
+            dispatchReply((ABD_Message) m);
+        } else if (m.isStop()) {
+            if (!stopping) {
+                // Stop once the operations in progress are complete,
+                // together with the other gateways
+                stopping = true;
+                dds.stopGateways(id);
+            }
+        } else if (!stopping) {
+            handleClientRequest(m);
+        }
+    }
+
+    /**
+     * Handle client request using ABD algorithm: start its operation, which
+     * progresses as the replies arrive
+     */
+    private void handleClientRequest(Message request) {
+        if (request.type != Message.MessageType.CLIENT_WR_REQ && request.type != Message.MessageType.CLIENT_RD_REQ) {
+            return;
+        }
+        if (request.type == Message.MessageType.CLIENT_WR_REQ && dds.singleWriter) {
+            // In single-writer mode each register is written by its home
+            // gateway only, which then owns its counter
+            ABD_Gateway home = dds.homeGateway(request.register);
+            if (home != this) {
+                forwardedWrites++;
+                home.inbox.send(request);
+                return;
+            }
+        }
+        if (dds.leaseNs > 0) {
+            if (request.type == Message.MessageType.CLIENT_WR_REQ) {
+                // Our own write makes our lease stale
+                invalidateLease(request.register);
+            } else {
+                ReadLease lease = leases.get(request.register);
+                if (lease != null && System.nanoTime() - lease.expiry < 0) {
+                    leaseReads++;
+                    Message response = new Message(Message.MessageType.REPLICA_RD_ACK, request.register, lease.value);
+                    response.requestId = request.requestId;
+                    request.meta.outChannel.send(response);
+                    return;
+                }
+            }
+        }
+        ABD_Operation op = new ABD_Operation(nextOpId++, request, this);
+        pendingOps.put(op.opId, op);
+        maxInFlight = Math.max(maxInFlight, pendingOps.size());
+        op.start();
+    }
+
+    /**
+     * Route a reply to its operation by operation id; replies of operations
+     * already complete are dropped
+     */
+    private void dispatchReply(ABD_Message reply) {
+        if (reply.abdType == ABD_Message.ABD_MessageType.BATCH) {
+            for (ABD_Message entry : reply.batch) {
+                dispatchReply(entry);
+            }
+            return;
+        }
+        if (reply.abdType == ABD_Message.ABD_MessageType.LEASE_REVOKE) {
+            // A write waits for our lease: stop using it, then release it
+            invalidateLease(reply.register);
+            leasesRevoked++;
+            ABD_Message release = new ABD_Message(ABD_Message.ABD_MessageType.LEASE_RELEASE);
+            release.register = reply.register;
+            sendToReplica(release, reply.replicaId);
+            return;
+        }
+        ABD_Operation op = pendingOps.get(reply.opId);
+        if (op == null) {
+            return;
+        }
+        if (op.onReply(reply)) {
+            pendingOps.remove(reply.opId);
+            completedOps++;
+        }
+    }
+
+    /**
+     * Number of invalidations of the lease on "register" so far
+     */
+    int leaseEpoch(String register) {
+        return leaseInvalidations.getOrDefault(register, 0);
+    }
+
+    private void invalidateLease(String register) {
+        leases.remove(register);
+        leaseInvalidations.merge(register, 1, Integer::sum);
+    }
+
+    /**
+     * A read found "value" stored, and leased, by a quorum: read it locally
+     * until the lease expires on our clock, the drift bound before the
+     * replicas' expiry (they started the lease after "start")
+     */
+    void installLease(String register, String value, long start, int epoch) {
+        if (epoch != leaseEpoch(register)) {
+            return;
+        }
+        leases.put(register, new ReadLease(value, start + dds.leaseNs - dds.leaseDriftNs));
+        leasesInstalled++;
+    }
+
+    /**
+     * Let the operations in progress retry, hedge or end their current
+     * phase
+     */
+    private void checkTimers() {
+        long now = System.nanoTime();
+        Iterator<ABD_Operation> it = pendingOps.values().iterator();
+        while (it.hasNext()) {
+            ABD_Operation op = it.next();
+            if (op.onTick(now)) {
+                it.remove();
+                completedOps++;
+                if (op.failed) {
+                    failedOps++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Send a message of this gateway to "replica" (at the next flush)
+     */
+    void sendToReplica(ABD_Message msg, int replica) {
+        msg.gatewayId = id;
+        outboxes[replica].add(msg);
+    }
+
+    /**
+     * Send the outboxes, at most MAX_BATCH messages per network message
+     */
+    private void flush() {
+        for (int i = 0; i < dds.nbReplicas; i++) {
+            ArrayList<ABD_Message> outbox = outboxes[i];
+            for (int from = 0; from < outbox.size(); from += MAX_BATCH) {
+                int to = Math.min(outbox.size(), from + MAX_BATCH);
+                ABD_Message msg;
+                if (to - from == 1) {
+                    msg = outbox.get(from);
+                } else {
+                    msg = new ABD_Message(nextBatchId++, new ArrayList<>(outbox.subList(from, to)));
+                    msg.gatewayId = id;
+                }
+                dds.send(msg, i);
+                sentBatches++;
+            }
+            sentMessages += outbox.size();
+            outbox.clear();
+        }
+    }
+
+    /**
+     * Timestamp of a new write after a Phase 1 that found "maxTs"; in
+     * single-writer mode the gateway then owns the register's counter
+     */
+    Timestamp issueTimestamp(String register, Timestamp maxTs) {
+        int counter = Math.max(maxTs.counter, lastCounters.getOrDefault(register, 0)) + 1;
+        lastCounters.put(register, counter);
+        if (dds.singleWriter && !contendedRegisters.contains(register)) {
+            ownedRegisters.add(register);
+        }
+        return new Timestamp(counter, id);
+    }
+
+    /**
+     * Timestamp of a single-round write on an owned register, or null when
+     * the register needs the two-phase path
+     */
+    Timestamp nextOwnedTimestamp(String register) {
+        if (!ownedRegisters.contains(register)) {
+            return null;
+        }
+        int counter = lastCounters.get(register) + 1;
+        lastCounters.put(register, counter);
+        return new Timestamp(counter, id);
+    }
+
+    /**
+     * A Phase 1 reply revealed "ts": a timestamp we did not issue means
+     * another writer exists
+     */
+    void observeTimestamp(String register, Timestamp ts) {
+        if (ts == null || ts.counter == 0 || ts.replicaId == id) {
+            return;
+        }
+        if (!contendedRegisters.contains(register)) {
+            contendedRegisters.add(register);
+            if (ownedRegisters.remove(register)) {
+                System.out.println("ABD gateway " + id + ": register " + register + " written by writer " +
+                        ts.replicaId + ", back to two-phase writes");
+            }
+        }
+        if (ts.counter > lastCounters.getOrDefault(register, 0)) {
+            lastCounters.put(register, ts.counter);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package myDDS;
 
+import java.util.List;
+
 /**
  * Message class for ABD algorithm
  * Extends base Message with ABD-specific fields
@@ -13,11 +15,26 @@ public class ABD_Message extends Message {
 
         // Phase 2: Update phase
         UPDATE, // Request to update (value, timestamp)
-        UPDATE_ACK // Acknowledgment of update
+        UPDATE_ACK, // Acknowledgment of update
+
+        // Read leases
+        LEASE_REVOKE, // replica -> holder: a write waits for the lease
+        LEASE_RELEASE, // holder -> replica: the lease is given up
+
+        // Several of the messages above in one network message
+        BATCH
     }
 
     ABD_MessageType abdType;
     Timestamp timestamp;
+    long opId; // id of the gateway operation this message belongs to
+    int gatewayId; // the gateway running that operation
+    int replicaId = -1; // for replies: the replica that answers
+    boolean leaseRequested; // QUERY: grant a read lease on the register
+    long leaseNs; // QUERY_REPLY: duration of the lease granted (0: none)
+    // BATCH: the messages carried, in one request or one reply
+    List<ABD_Message> batch;
+    long batchId;
 
     // Constructor for QUERY message
     public ABD_Message(ABD_MessageType abdType, Metadata meta, String register) {
@@ -45,17 +62,33 @@ public class ABD_Message extends Message {
         this.abdType = abdType;
     }
 
+    // Constructor for BATCH message (requests or replies)
+    public ABD_Message(long batchId, List<ABD_Message> batch) {
+        super(MessageType.CLIENT_RD_REQ);
+        this.abdType = ABD_MessageType.BATCH;
+        this.batchId = batchId;
+        this.batch = batch;
+    }
+
     @Override
     public String toString() {
         switch (abdType) {
             case QUERY:
-                return "ABD QUERY for register [" + register + "]";
+                return "ABD QUERY for register [" + register + "] (op " + opId + "@" + gatewayId + ")";
             case QUERY_REPLY:
-                return "ABD QUERY_REPLY: [" + register + "]=" + val + " with timestamp " + timestamp;
+                return "ABD QUERY_REPLY: [" + register + "]=" + val + " with timestamp " + timestamp +
+                        " (op " + opId + "@" + gatewayId + ", replica " + replicaId + ")";
             case UPDATE:
-                return "ABD UPDATE: [" + register + "]=" + val + " with timestamp " + timestamp;
+                return "ABD UPDATE: [" + register + "]=" + val + " with timestamp " + timestamp + " (op " + opId + "@" + gatewayId + ")";
             case UPDATE_ACK:
-                return "ABD UPDATE_ACK";
+                return "ABD UPDATE_ACK (op " + opId + "@" + gatewayId + ", replica " + replicaId + ")";
+            case LEASE_REVOKE:
+                return "ABD LEASE_REVOKE [" + register + "] to gateway " + gatewayId + " (replica " + replicaId + ")";
+            case LEASE_RELEASE:
+                return "ABD LEASE_RELEASE [" + register + "] from gateway " + gatewayId;
+            case BATCH:
+                return "ABD BATCH " + batchId + "@" + gatewayId + " of " + batch.size() + " messages" +
+                        (replicaId >= 0 ? " (replica " + replicaId + ")" : "");
             default:
                 return super.toString();
         }
@@ -0,0 +1,359 @@
+package myDDS;
+
+import java.util.*;
+
+/**
+ * State machine of one ABD read or write handled by the gateway.
+ * Operations do not block the gateway: each one sends the messages of its
+ * current phase, tagged with its operation id, and advances when the
+ * gateway hands it the replies carrying that id. Many operations can
+ * therefore be in progress at the same time.
+ *
+ * Write: QUERY (highest timestamp) then UPDATE (value, incremented timestamp),
+ * or UPDATE alone on a register owned by the gateway in single-writer mode
+ * Read: QUERY (value with highest timestamp) then UPDATE (write-back), the
+ * write-back being skipped in fast-read mode when a write quorum already
+ * stores the highest timestamp (phases wait for a read quorum, then a write
+ * quorum, see ABD_QuorumSystem)
+ *
+ * Each phase is sent to every replica, or with hedging to a quorum first and
+ * to the others once the hedge delay has passed. With timeouts, a phase
+ * still without a quorum is sent again to the replicas that did not answer
+ * (replicas handle a repeated QUERY or UPDATE the same way), and the
+ * operation fails with a REPLICA_ERROR after the last retry.
+ *
+ * With read leases, a read asks for a lease in its QUERY and installs it at
+ * the gateway if replicas weighing the lease quorum granted it with the
+ * same, highest, timestamp.
+ */
+public class ABD_Operation {
+    enum Phase {
+        QUERY,
+        UPDATE,
+        DONE
+    }
+
+    final long opId;
+    final Message request; // the client request
+    final boolean isWrite;
+    private final ABD_Gateway gateway;
+
+    Phase phase;
+    boolean failed = false; // complete without a quorum
+    // replicas that answered the current phase, and their total weight
+    private final Set<Integer> responded;
+    private int respondedWeight;
+    // Phase 1 result: highest timestamp (and its value) seen in the replies
+    private Timestamp maxTs;
+    private String maxValue;
+    // weight of the Phase 1 replies carrying maxTs
+    private int maxTsWeight;
+
+    // message of the current phase, replicas it was sent to, when it was
+    // first sent and how many times it was sent again since
+    private ABD_Message current;
+    private final Set<Integer> contacted;
+    private long phaseStart;
+    private int retries;
+    private boolean hedged;
+
+    // Read leases: Phase 1 replies granting a lease, when Phase 1 started
+    // and the lease epoch of the register at that time
+    private List<ABD_Message> leaseGrants;
+    private long leaseStart;
+    private int leaseEpoch;
+
+    public ABD_Operation(long opId, Message request, ABD_Gateway gateway) {
+        this.opId = opId;
+        this.request = request;
+        this.isWrite = request.type == Message.MessageType.CLIENT_WR_REQ;
+        this.gateway = gateway;
+        this.responded = new HashSet<>();
+        this.contacted = new HashSet<>();
+        this.maxTs = Timestamp.ZERO;
+        this.maxValue = "UNDEF";
+    }
+
+    /**
+     * Phase 1: query the replicas
+     */
+    public void start() {
+        if (isWrite) {
+            Timestamp ownTs = gateway.nextOwnedTimestamp(request.register);
+            if (ownTs != null) {
+                // Single-writer register: the gateway knows the highest
+                // timestamp, Phase 1 is not needed
+                System.out.println("\n[ABD WRITE op " + opId + "@" + gateway.id + "] Starting single-round write: " + request.register +
+                        "=" + request.val + " with timestamp " + ownTs);
+                gateway.singleRoundWrites++;
+                sendUpdate(request.val, ownTs);
+                return;
+            }
+        }
+        System.out.println("\n[ABD " + kind() + " op " + opId + "@" + gateway.id + "] Starting: " +
+                request.register + (isWrite ? "=" + request.val : "") + ", querying the replicas");
+        ABD_Message query = new ABD_Message(ABD_Message.ABD_MessageType.QUERY, request.meta, request.register);
+        query.opId = opId;
+        if (!isWrite && gateway.dds.leaseNs > 0) {
+            query.leaseRequested = true;
+            leaseGrants = new ArrayList<>();
+            leaseEpoch = gateway.leaseEpoch(request.register);
+        }
+        startPhase(Phase.QUERY, query);
+        leaseStart = phaseStart;
+    }
+
+    /**
+     * Send the message of a new phase: to every replica, or with hedging to
+     * a quorum (a different one for consecutive operations)
+     */
+    private void startPhase(Phase phase, ABD_Message msg) {
+        this.phase = phase;
+        current = msg;
+        responded.clear();
+        respondedWeight = 0;
+        contacted.clear();
+        phaseStart = System.nanoTime();
+        retries = 0;
+        hedged = false;
+        int n = gateway.dds.nbReplicas;
+        int needed = gateway.dds.hedgeDelayNs > 0 ? quorum() : Integer.MAX_VALUE;
+        int weight = 0;
+        for (int k = 0; k < n && weight < needed; k++) {
+            int replica = (int) ((opId + k) % n);
+            contacted.add(replica);
+            weight += gateway.dds.quorums.weight(replica);
+            gateway.sendToReplica(msg, replica);
+        }
+    }
+
+    /**
+     * Timer: end Phase 1 of a read waiting for more replies, or hedge or
+     * retry the current phase, when its delay has passed
+     * Returns true when the operation is complete (see failed)
+     */
+    public boolean onTick(long now) {
+        if (phase == Phase.DONE) {
+            return false;
+        }
+        ABD_DDS dds = gateway.dds;
+        long elapsed = now - phaseStart;
+        if (phase == Phase.QUERY && respondedWeight >= dds.quorums.readQuorum && dds.hedgeDelayNs > 0 &&
+                elapsed >= dds.hedgeDelayNs) {
+            // Waited long enough for the fast path or the lease
+            return endQuery();
+        }
+        if (!hedged && dds.hedgeDelayNs > 0 && elapsed >= dds.hedgeDelayNs) {
+            // Slow quorum: ask the replicas not contacted yet
+            hedged = true;
+            gateway.hedgedPhases++;
+            for (int i = 0; i < dds.nbReplicas; i++) {
+                if (contacted.add(i)) {
+                    gateway.sendToReplica(current, i);
+                }
+            }
+        }
+        if (dds.phaseTimeoutNs > 0 && elapsed >= (retries + 1) * dds.phaseTimeoutNs) {
+            if (retries >= dds.maxRetries) {
+                fail();
+                failed = true;
+                return true;
+            }
+            retries++;
+            gateway.retriedPhases++;
+            System.out.println("[ABD " + kind() + " op " + opId + "@" + gateway.id + "] No quorum after " +
+                    (elapsed / 1_000_000) + " ms in phase " + phase + ", retry " + retries);
+            for (int i = 0; i < dds.nbReplicas; i++) {
+                if (!responded.contains(i)) {
+                    contacted.add(i);
+                    gateway.sendToReplica(current, i);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Weight of the replicas to contact first in the current phase: a read
+     * quorum in Phase 1 (more for a read that can only take the fast path or
+     * get a lease with more replies), a write quorum in Phase 2
+     */
+    private int quorum() {
+        ABD_QuorumSystem quorums = gateway.dds.quorums;
+        if (phase == Phase.UPDATE) {
+            return quorums.writeQuorum;
+        }
+        int needed = quorums.readQuorum;
+        if (!isWrite && gateway.dds.fastReads) {
+            needed = Math.max(needed, quorums.writeQuorum);
+        }
+        if (leaseGrants != null) {
+            needed = Math.max(needed, quorums.leaseQuorum());
+        }
+        return needed;
+    }
+
+    /**
+     * Record the answer of "replica" to the current phase; false if it had
+     * already answered
+     */
+    private boolean respond(int replica) {
+        if (!responded.add(replica)) {
+            return false;
+        }
+        respondedWeight += gateway.dds.quorums.weight(replica);
+        return true;
+    }
+
+    /**
+     * Handle a reply carrying our operation id
+     * Returns true when the operation is complete
+     */
+    public boolean onReply(ABD_Message reply) {
+        switch (phase) {
+            case QUERY:
+                // late or duplicate replies are ignored
+                if (reply.abdType != ABD_Message.ABD_MessageType.QUERY_REPLY || !respond(reply.replicaId)) {
+                    return false;
+                }
+                gateway.observeTimestamp(request.register, reply.timestamp);
+                if (reply.timestamp != null && reply.timestamp.isGreaterThan(maxTs)) {
+                    maxTs = reply.timestamp;
+                    maxValue = reply.val;
+                    maxTsWeight = gateway.dds.quorums.weight(reply.replicaId);
+                } else if (maxTs.equals(reply.timestamp)) {
+                    maxTsWeight += gateway.dds.quorums.weight(reply.replicaId);
+                }
+                if (leaseGrants != null && reply.leaseNs > 0) {
+                    leaseGrants.add(reply);
+                }
+                if (respondedWeight >= gateway.dds.quorums.readQuorum && !waitForMore()) {
+                    return endQuery();
+                }
+                return false;
+            case UPDATE:
+                if (reply.abdType != ABD_Message.ABD_MessageType.UPDATE_ACK || !respond(reply.replicaId)) {
+                    return false;
+                }
+                if (respondedWeight >= gateway.dds.quorums.writeQuorum) {
+                    complete();
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * End of Phase 1, with at least a read quorum of replies
+     * Returns true when the operation is complete
+     */
+    private boolean endQuery() {
+        if (leaseGranted()) {
+            gateway.installLease(request.register, maxValue, leaseStart, leaseEpoch);
+        }
+        if (fastPath()) {
+            // A write quorum already stores maxTs, so every later read
+            // quorum sees it without write-back
+            System.out.println("[ABD READ op " + opId + "@" + gateway.id + "] Write quorum stores timestamp " + maxTs +
+                    ", skipping write-back");
+            gateway.fastPathReads++;
+            complete();
+            return true;
+        }
+        startUpdate();
+        return false;
+    }
+
+    private boolean fastPath() {
+        return !isWrite && gateway.dds.fastReads && maxTsWeight >= gateway.dds.quorums.writeQuorum;
+    }
+
+    /**
+     * Whether the replicas granting the lease with maxTs weigh the lease
+     * quorum
+     */
+    private boolean leaseGranted() {
+        if (leaseGrants == null) {
+            return false;
+        }
+        int granted = 0;
+        for (ABD_Message grant : leaseGrants) {
+            if (maxTs.equals(grant.timestamp)) {
+                granted += gateway.dds.quorums.weight(grant.replicaId);
+            }
+        }
+        return granted >= gateway.dds.quorums.leaseQuorum();
+    }
+
+    /**
+     * With hedging, a read with a read quorum of replies but neither the fast
+     * path nor its lease yet waits, until the hedge delay, for the other
+     * replicas contacted
+     */
+    private boolean waitForMore() {
+        if (isWrite || gateway.dds.hedgeDelayNs == 0 || responded.size() == contacted.size()) {
+            return false;
+        }
+        return (gateway.dds.fastReads && !fastPath()) || (leaseGrants != null && !leaseGranted());
+    }
+
+    /**
+     * Phase 2: write the new value (write) or write back the latest one (read)
+     */
+    private void startUpdate() {
+        if (isWrite) {
+            Timestamp newTs = gateway.issueTimestamp(request.register, maxTs);
+            System.out.println("[ABD WRITE op " + opId + "@" + gateway.id + "] Highest timestamp found: " + maxTs +
+                    ", updating replicas with " + newTs);
+            gateway.twoPhaseWrites++;
+            sendUpdate(request.val, newTs);
+        } else {
+            gateway.writeBackReads++;
+            System.out.println("[ABD READ op " + opId + "@" + gateway.id + "] Highest value found: " + maxValue +
+                    " with timestamp " + maxTs + ", writing back");
+            sendUpdate(maxValue, maxTs);
+        }
+    }
+
+    private void sendUpdate(String val, Timestamp ts) {
+        ABD_Message update = new ABD_Message(ABD_Message.ABD_MessageType.UPDATE, request.meta, request.register,
+                val, ts);
+        update.opId = opId;
+        startPhase(Phase.UPDATE, update);
+    }
+
+    /**
+     * Answer the client
+     */
+    private void complete() {
+        phase = Phase.DONE;
+        Message response;
+        if (isWrite) {
+            System.out.println("[ABD WRITE op " + opId + "@" + gateway.id + "] Write complete!");
+            response = new Message(Message.MessageType.REPLICA_WR_ACK);
+        } else {
+            System.out.println("[ABD READ op " + opId + "@" + gateway.id + "] Read complete! Returning value: " + maxValue);
+            response = new Message(Message.MessageType.REPLICA_RD_ACK, request.register, maxValue);
+        }
+        response.requestId = request.requestId;
+        request.meta.outChannel.send(response);
+    }
+
+    /**
+     * Answer the client that the operation failed
+     */
+    private void fail() {
+        String reason = "no quorum in phase " + phase + " after " + retries + " retries";
+        System.out.println("[ABD " + kind() + " op " + opId + "@" + gateway.id + "] Failed: " + reason);
+        phase = Phase.DONE;
+        Message response = new Message(Message.MessageType.REPLICA_ERROR, request.register, reason);
+        response.requestId = request.requestId;
+        request.meta.outChannel.send(response);
+    }
+
+    private String kind() {
+        return isWrite ? "WRITE" : "READ";
+    }
+}
@@ -0,0 +1,82 @@
+package myDDS;
+
+import java.util.Arrays;
+
+/**
+ * Weighted quorum system of the ABD algorithm
+ * Each replica has a weight; a set of replicas is a read quorum when its
+ * weight reaches readQuorum, a write quorum when it reaches writeQuorum.
+ * Every read quorum must intersect every write quorum
+ * (readQuorum + writeQuorum > total weight), so that a QUERY always sees
+ * the last complete UPDATE.
+ */
+public class ABD_QuorumSystem {
+    final int[] weights;
+    final int totalWeight;
+    final int readQuorum;
+    final int writeQuorum;
+
+    public ABD_QuorumSystem(int[] weights, int readQuorum, int writeQuorum) {
+        this.weights = weights.clone();
+        int total = 0;
+        for (int w : weights) {
+            if (w < 0) {
+                throw new IllegalArgumentException("negative replica weight in " + Arrays.toString(weights));
+            }
+            total += w;
+        }
+        this.totalWeight = total;
+        this.readQuorum = readQuorum;
+        this.writeQuorum = writeQuorum;
+        if (readQuorum <= 0 || writeQuorum <= 0 || readQuorum > total || writeQuorum > total) {
+            throw new IllegalArgumentException("quorums out of range: " + this);
+        }
+        if (readQuorum + writeQuorum <= total) {
+            throw new IllegalArgumentException("read and write quorums do not intersect: " + this);
+        }
+    }
+
+    /**
+     * Majorities of "nbReplicas" replicas of weight 1
+     */
+    public static ABD_QuorumSystem majority(int nbReplicas) {
+        int[] weights = new int[nbReplicas];
+        Arrays.fill(weights, 1);
+        return new ABD_QuorumSystem(weights, nbReplicas / 2 + 1, nbReplicas / 2 + 1);
+    }
+
+    int weight(int replica) {
+        return weights[replica];
+    }
+
+    /**
+     * Weight a read lease must be granted with: the leased value is stored
+     * by a write quorum, and the grantors intersect every write quorum
+     */
+    int leaseQuorum() {
+        return Math.max(writeQuorum, totalWeight - writeQuorum + 1);
+    }
+
+    /**
+     * Number of replicas that may crash, whichever they are, while read and
+     * write quorums remain: the heaviest replicas are the worst case
+     */
+    public int faultTolerance() {
+        int[] sorted = weights.clone();
+        Arrays.sort(sorted);
+        int needed = Math.max(readQuorum, writeQuorum);
+        int remaining = totalWeight;
+        int failures = 0;
+        for (int i = sorted.length - 1; i >= 0 && remaining - sorted[i] >= needed; i--) {
+            remaining -= sorted[i];
+            failures++;
+        }
+        return failures;
+    }
+
+    @Override
+    public String toString() {
+        return "weights " + Arrays.toString(weights) + ", read quorum " + readQuorum + "/" + totalWeight +
+                ", write quorum " + writeQuorum + "/" + totalWeight;
+    }
+}
@@ -4,23 +4,32 @@ import java.util.*;
 
 /**
  * Replica implementation for ABD algorithm (Question 3)
- * Each replica stores (value, timestamp) pairs
+ * Each replica stores (value, timestamp) pairs (see ABD_Store)
+ *
+ * Read leases: a QUERY may ask for a lease on its register. While a gateway
+ * holds one, the UPDATEs of other gateways on that register are neither
+ * applied nor acknowledged: the replica asks the holder to give up the lease
+ * (LEASE_REVOKE) and handles them once it has (LEASE_RELEASE) or the lease
+ * has expired. No lease is granted while updates are waiting.
  */
 public class ABD_Replica extends Thread {
     int id;
     ABD_DDS dds;
-    Channel responseChannel; // Channel to send responses back to DDS gateway
 
     // Storage: maps register -> (value, timestamp)
-    HashMap<String, String> values;
-    HashMap<String, Timestamp> timestamps;
+    ABD_Store store;
 
-    public ABD_Replica(int id, ABD_DDS dds, Channel responseChannel) {
+    // Read leases: register -> (gateway -> expiry, System.nanoTime())
+    private final HashMap<String, HashMap<Integer, Long>> leases;
+    // UPDATEs waiting for the leases of other gateways, per register
+    private final HashMap<String, ArrayDeque<ABD_Message>> deferred;
+
+    public ABD_Replica(int id, ABD_DDS dds) {
         this.id = id;
         this.dds = dds;
-        this.responseChannel = responseChannel;
-        this.values = new HashMap<>();
-        this.timestamps = new HashMap<>();
+        this.store = new ABD_Store();
+        this.leases = new HashMap<>();
+        this.deferred = new HashMap<>();
         System.out.println("ABD Replica " + id + " initialized");
     }
 
@@ -37,8 +46,13 @@ public class ABD_Replica extends Thread {
 
                 Message response = execute(m);
                 if (response != null) {
-                    // Send response back to DDS gateway via responseChannel
-                    responseChannel.send(response);
+                    // Send response back to the gateway of the request
+                    dds.reply((ABD_Message) m, (ABD_Message) response);
+                }
+            } else if (!deferred.isEmpty()) {
+                // Leases expire without any message
+                for (String register : new ArrayList<>(deferred.keySet())) {
+                    applyDeferred(register);
                 }
             }
         }
@@ -54,54 +68,168 @@ public class ABD_Replica extends Thread {
         }
 
         ABD_Message msg = (ABD_Message) message;
+        ABD_Message reply;
 
         switch (msg.abdType) {
             case QUERY:
-                return handleQuery(msg);
+                reply = handleQuery(msg);
+                break;
 
             case UPDATE:
-                return handleUpdate(msg);
+                reply = handleUpdate(msg);
+                break;
+
+            case BATCH:
+                reply = handleBatch(msg);
+                break;
+
+            case LEASE_RELEASE:
+                handleRelease(msg);
+                return null;
 
             default:
                 return null;
         }
+        if (reply == null) {
+            // deferred until a lease is released
+            return null;
+        }
+        // the gateway routes the reply to its operation
+        reply.opId = msg.opId;
+        reply.gatewayId = msg.gatewayId;
+        reply.replicaId = id;
+        return reply;
+    }
+
+    /**
+     * Handle BATCH: execute every message of the batch in one pass and
+     * answer them all in one reply
+     */
+    private ABD_Message handleBatch(ABD_Message msg) {
+        List<ABD_Message> replies = new ArrayList<>(msg.batch.size());
+        for (ABD_Message entry : msg.batch) {
+            Message reply = execute(entry);
+            if (reply != null) {
+                replies.add((ABD_Message) reply);
+            }
+        }
+        return new ABD_Message(msg.batchId, replies);
+    }
+
+    /**
+     * Whether another gateway than the one of "update" holds a lease on its
+     * register (expired leases are dropped)
+     */
+    private boolean blocked(ABD_Message update) {
+        HashMap<Integer, Long> holders = leases.get(update.register);
+        if (holders == null) {
+            return false;
+        }
+        long now = System.nanoTime();
+        holders.values().removeIf(expiry -> expiry - now <= 0);
+        if (holders.isEmpty()) {
+            leases.remove(update.register);
+            return false;
+        }
+        return holders.size() > 1 || !holders.containsKey(update.gatewayId);
+    }
+
+    /**
+     * Handle LEASE_RELEASE: drop the lease of the gateway
+     */
+    private void handleRelease(ABD_Message msg) {
+        HashMap<Integer, Long> holders = leases.get(msg.register);
+        if (holders != null) {
+            holders.remove(msg.gatewayId);
+        }
+        applyDeferred(msg.register);
+    }
+
+    /**
+     * Apply and acknowledge, in order, the waiting updates of "register"
+     * that no lease blocks any more
+     */
+    private void applyDeferred(String register) {
+        ArrayDeque<ABD_Message> waiting = deferred.get(register);
+        if (waiting == null) {
+            return;
+        }
+        while (!waiting.isEmpty() && !blocked(waiting.peek())) {
+            ABD_Message update = waiting.poll();
+            ABD_Message reply = handleUpdateNow(update);
+            reply.opId = update.opId;
+            reply.gatewayId = update.gatewayId;
+            reply.replicaId = id;
+            dds.reply(update, reply);
+        }
+        if (waiting.isEmpty()) {
+            deferred.remove(register);
+        }
     }
 
     /**
      * Handle QUERY: return current (value, timestamp) for the register
      */
-    private Message handleQuery(ABD_Message msg) {
+    private ABD_Message handleQuery(ABD_Message msg) {
         String register = msg.register;
-        String value = values.getOrDefault(register, "UNDEF");
-        Timestamp ts = timestamps.getOrDefault(register, new Timestamp(0, 0));
+        int slot = store.find(register);
+        String value = slot < 0 ? "UNDEF" : store.value(slot);
+        Timestamp ts = slot < 0 ? Timestamp.ZERO : new Timestamp(store.counter(slot), store.writer(slot));
 
         System.out.println("  ABD Replica " + id + " replying: " + register + "=" + value + ", ts=" + ts);
 
-        return new ABD_Message(
+        ABD_Message reply = new ABD_Message(
                 ABD_Message.ABD_MessageType.QUERY_REPLY,
                 register,
                 value,
-                new Timestamp(ts));
+                ts);
+        if (msg.leaseRequested && !deferred.containsKey(register)) {
+            leases.computeIfAbsent(register, r -> new HashMap<>()).put(msg.gatewayId, System.nanoTime() + dds.leaseNs);
+            reply.leaseNs = dds.leaseNs;
+        }
+        return reply;
     }
 
     /**
-     * Handle UPDATE: update local state if timestamp is newer
+     * Handle UPDATE: update local state if timestamp is newer, unless
+     * another gateway holds a lease on the register (null: deferred)
      */
-    private Message handleUpdate(ABD_Message msg) {
+    private ABD_Message handleUpdate(ABD_Message msg) {
+        String register = msg.register;
+        ArrayDeque<ABD_Message> waiting = deferred.get(register);
+        if (waiting != null || blocked(msg)) {
+            if (waiting == null) {
+                // First waiting update: revoke the leases of the register
+                waiting = new ArrayDeque<>();
+                deferred.put(register, waiting);
+                for (int holder : leases.get(register).keySet()) {
+                    if (holder != msg.gatewayId) {
+                        ABD_Message revoke = new ABD_Message(ABD_Message.ABD_MessageType.LEASE_REVOKE);
+                        revoke.register = register;
+                        revoke.gatewayId = holder;
+                        revoke.replicaId = id;
+                        dds.gateways[holder].inbox.send(revoke);
+                    }
+                }
+            }
+            System.out.println("  ABD Replica " + id + " deferring update of " + register + " (leased)");
+            waiting.add(msg);
+            return null;
+        }
+        return handleUpdateNow(msg);
+    }
+
+    private ABD_Message handleUpdateNow(ABD_Message msg) {
         String register = msg.register;
         String newValue = msg.val;
         Timestamp newTs = msg.timestamp;
 
-        Timestamp currentTs = timestamps.getOrDefault(register, new Timestamp(0, 0));
-
-        if (newTs.isGreaterThan(currentTs)) {
-            // Accept the update
-            values.put(register, newValue);
-            timestamps.put(register, new Timestamp(newTs));
+        if (store.update(register, newValue, newTs.counter, newTs.replicaId)) {
+            // Accepted: the timestamp is newer
             System.out.println("  ABD Replica " + id + " updated: " + register + "=" + newValue + ", ts=" + newTs);
         } else {
-            System.out.println(
-                    "  ABD Replica " + id + " rejected update (old timestamp): " + newTs + " vs current " + currentTs);
+            System.out.println("  ABD Replica " + id + " rejected update (old timestamp): " + newTs +
+                    " vs current " + store.timestamp(register));
         }
 
         return new ABD_Message(ABD_Message.ABD_MessageType.UPDATE_ACK);
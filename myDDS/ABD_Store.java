@@ -0,0 +1,132 @@
+package myDDS;
+
+/**
+ * Register store of an ABD_Replica: register -> (value, timestamp)
+ * One open-addressing table (linear probing) with the value and the
+ * timestamp of each register inline in parallel arrays, so that a query or
+ * an update takes a single probe and allocates nothing. A timestamp is
+ * packed in a long, counter in the high half and writer id in the low half,
+ * so that comparing two timestamps is comparing two longs.
+ * Not thread-safe: used by its replica thread only.
+ */
+public class ABD_Store {
+    private String[] keys;
+    private String[] values;
+    private long[] stamps;
+    private int size = 0;
+
+    public ABD_Store() {
+        this(16);
+    }
+
+    public ABD_Store(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        values = new String[capacity];
+        stamps = new long[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Slot of "register", or -1 if it was never written
+     */
+    public int find(String register) {
+        int mask = keys.length - 1;
+        for (int i = hash(register) & mask; keys[i] != null; i = (i + 1) & mask) {
+            if (keys[i].equals(register)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String value(int slot) {
+        return values[slot];
+    }
+
+    public int counter(int slot) {
+        return (int) (stamps[slot] >>> 32);
+    }
+
+    public int writer(int slot) {
+        return (int) stamps[slot];
+    }
+
+    /**
+     * Timestamp of "register" (Timestamp.ZERO if it was never written)
+     */
+    public Timestamp timestamp(String register) {
+        int slot = find(register);
+        return slot < 0 ? Timestamp.ZERO : new Timestamp(counter(slot), writer(slot));
+    }
+
+    /**
+     * Store (val, (counter, writer)) if this timestamp is greater than the
+     * register's one; returns whether the update was applied
+     */
+    public boolean update(String register, String val, int counter, int writer) {
+        // Counters and writer ids are never negative
+        long stamp = ((long) counter << 32) | writer;
+        int mask = keys.length - 1;
+        int i = hash(register) & mask;
+        while (keys[i] != null) {
+            if (keys[i].equals(register)) {
+                if (stamp > stamps[i]) {
+                    values[i] = val;
+                    stamps[i] = stamp;
+                    return true;
+                }
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        // Never written: the timestamp is ZERO
+        if (stamp == 0) {
+            return false;
+        }
+        keys[i] = register;
+        values[i] = val;
+        stamps[i] = stamp;
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+        return true;
+    }
+
+    // Keep the load factor at most 1/2
+    private void resize() {
+        String[] oldKeys = keys;
+        String[] oldValues = values;
+        long[] oldStamps = stamps;
+        allocate(oldKeys.length * 2);
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                int i = hash(oldKeys[j]) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+                stamps[i] = oldStamps[j];
+            }
+        }
+    }
+
+    // Spread the String hash: close hashes (e.g. "x1", "x2") would otherwise
+    // fill neighbouring slots and lengthen the probe sequences
+    private static int hash(String register) {
+        int h = register.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,106 @@
+package myDDS;
+
+import java.util.*;
+
+/**
+ * Message exchanged by replicas during anti-entropy (eventual consistency
+ * mode). A round between replicas A and B is:
+ * A -> B DIGEST (A's Merkle tree),
+ * B -> A VERSIONS of B's registers in the buckets where the trees differ,
+ * A -> B DELTA of A's entries that B is missing or has older, listing the
+ * registers for which B holds a newer version,
+ * B -> A DELTA of those registers.
+ * Values therefore only travel for the entries that actually differ.
+ */
+public class AntiEntropy_Message extends Message {
+    enum AE_MessageType {
+        DIGEST, // Merkle tree of the sender
+        VERSIONS, // versions of the sender's registers in the differing buckets
+        DELTA // entries the receiver is missing, and the ones it must send back
+    }
+
+    AE_MessageType aeType;
+    int sender;
+    // the round this message belongs to: started by replica "initiator"
+    int initiator;
+    int round;
+    // DIGEST: the Merkle tree of the sender
+    long[] tree;
+    // VERSIONS: the differing buckets
+    List<Integer> buckets;
+    // VERSIONS: the sender's registers and their versions (values is null)
+    // DELTA: the sender's entries
+    List<String> registers;
+    List<String> values;
+    List<Timestamp> versions;
+    // DELTA: registers the receiver must send back (newer on its side)
+    List<String> wanted;
+
+    // Constructor for DIGEST
+    public AntiEntropy_Message(int sender, int round, long[] tree) {
+        super(MessageType.REPLICA_ANTI_ENTROPY);
+        this.aeType = AE_MessageType.DIGEST;
+        this.sender = sender;
+        this.initiator = sender;
+        this.round = round;
+        this.tree = tree;
+    }
+
+    // Constructor for VERSIONS and DELTA, answering "request"
+    public AntiEntropy_Message(AE_MessageType aeType, int sender, AntiEntropy_Message request) {
+        super(MessageType.REPLICA_ANTI_ENTROPY);
+        this.aeType = aeType;
+        this.sender = sender;
+        this.initiator = request.initiator;
+        this.round = request.round;
+        this.registers = new ArrayList<>();
+        this.versions = new ArrayList<>();
+        if (aeType == AE_MessageType.DELTA) {
+            this.values = new ArrayList<>();
+            this.wanted = new ArrayList<>();
+        }
+    }
+
+    // VERSIONS: one register of the sender
+    public void addVersion(String register, Timestamp version) {
+        registers.add(register);
+        versions.add(version);
+    }
+
+    // DELTA: one entry of the sender
+    public void addEntry(String register, String val, Timestamp version) {
+        registers.add(register);
+        values.add(val);
+        versions.add(version);
+    }
+
+    @Override
+    public String toString() {
+        String header = "Anti-entropy " + aeType + " of round " + round + "@" + initiator + " from replica " + sender;
+        switch (aeType) {
+            case DIGEST:
+                return header + " root=" + Long.toHexString(tree[1]);
+            case VERSIONS:
+                return header + ": " + buckets.size() + " buckets, " + entries();
+            case DELTA:
+                return header + ": " + entries() + (wanted.isEmpty() ? "" : ", wants " + wanted);
+            default:
+                return super.toString();
+        }
+    }
+
+    // "register=value@version" of every entry
+    private String entries() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(registers.size()).append(" entries [");
+        for (int i = 0; i < registers.size(); i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(registers.get(i));
+            if (values != null)
+                sb.append("=").append(values.get(i));
+            sb.append("@").append(versions.get(i));
+        }
+        return sb.append("]").toString();
+    }
+}
@@ -0,0 +1,27 @@
+package myDDS;
+
+// Worker thread of a replica applying the messages of a subset of the
+// registers. A register always maps to the same lane, so the messages on a
+// register are applied in the order the replica received them, while
+// messages on registers of different lanes are applied in parallel.
+public class ApplyLane extends Thread {
+  Replica replica;
+  int index;
+  ChannelFIFO inbox = new ChannelFIFO();
+  long applied = 0;
+
+  public ApplyLane(Replica replica, int index) {
+    this.replica = replica;
+    this.index = index;
+  }
+
+  public void run() {
+    while (true) {
+      Message m = inbox.receive();
+      if (m == null || m.isStop())
+        break;
+      replica.handle(m);
+      applied++;
+    }
+  }
+}
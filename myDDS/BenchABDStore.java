@@ -0,0 +1,134 @@
+package myDDS;
+
+import java.util.*;
+
+/**
+ * Micro-benchmark of the ABD replica store: ABD_Store against the previous
+ * layout (two HashMaps, register -> value and register -> Timestamp copy).
+ * Measures the update and query rates and the memory used per register.
+ * Usage: java myDDS.BenchABDStore [registers] [rounds]
+ */
+public class BenchABDStore {
+
+    // The previous replica layout
+    static class TwoMapStore {
+        HashMap<String, String> values = new HashMap<>();
+        HashMap<String, Timestamp> timestamps = new HashMap<>();
+
+        boolean update(String register, String val, Timestamp ts) {
+            Timestamp current = timestamps.getOrDefault(register, new Timestamp(0, 0));
+            if (ts.isGreaterThan(current)) {
+                values.put(register, val);
+                timestamps.put(register, new Timestamp(ts));
+                return true;
+            }
+            return false;
+        }
+
+        String query(String register) {
+            String value = values.getOrDefault(register, "UNDEF");
+            Timestamp ts = new Timestamp(timestamps.getOrDefault(register, new Timestamp(0, 0)));
+            sink += ts.counter;
+            return value;
+        }
+    }
+
+    static int sink = 0; // keeps the JIT from removing the queries
+
+    public static void main(String args[]) {
+        int nbRegisters = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        String[] registers = new String[nbRegisters];
+        String[] vals = new String[nbRegisters];
+        for (int i = 0; i < nbRegisters; i++) {
+            registers[i] = "reg" + i;
+            vals[i] = "v" + i;
+        }
+        // Queries come in another order than the first writes (a sequential
+        // scan would favour the HashMap nodes, allocated in write order)
+        String[] queried = registers.clone();
+        Collections.shuffle(Arrays.asList(queried), new Random(42));
+        // Incoming update timestamps (as decoded from messages)
+        Timestamp[] stamps = new Timestamp[rounds];
+        for (int r = 0; r < rounds; r++) {
+            stamps[r] = new Timestamp(r + 1, r % 3);
+        }
+
+        System.out.println("ABD store benchmark: " + nbRegisters + " registers, " + rounds + " rounds\n");
+
+        // Warm-up
+        for (int w = 0; w < 3; w++) {
+            runTwoMaps(registers, queried, vals, stamps);
+            runStore(registers, queried, vals, stamps);
+        }
+
+        long[] twoMaps = runTwoMaps(registers, queried, vals, stamps);
+        long[] store = runStore(registers, queried, vals, stamps);
+        long ops = (long) nbRegisters * rounds;
+        report("two HashMaps", twoMaps, ops, nbRegisters);
+        report("ABD_Store", store, ops, nbRegisters);
+        System.out.printf("%nupdate speedup: %.2fx, query speedup: %.2fx, memory: %.2fx less%n",
+                (double) twoMaps[0] / store[0], (double) twoMaps[1] / store[1], (double) twoMaps[2] / store[2]);
+    }
+
+    // Returns {update ns, query ns, retained bytes}
+    static long[] runTwoMaps(String[] registers, String[] queried, String[] vals, Timestamp[] stamps) {
+        long before = usedMemory();
+        TwoMapStore s = new TwoMapStore();
+        long t0 = System.nanoTime();
+        for (Timestamp ts : stamps) {
+            for (int i = 0; i < registers.length; i++) {
+                s.update(registers[i], vals[i], ts);
+            }
+        }
+        long t1 = System.nanoTime();
+        for (int r = 0; r < stamps.length; r++) {
+            for (int i = 0; i < registers.length; i++) {
+                sink += s.query(queried[i]).length();
+            }
+        }
+        long t2 = System.nanoTime();
+        long bytes = usedMemory() - before;
+        sink += s.values.size();
+        return new long[] { t1 - t0, t2 - t1, bytes };
+    }
+
+    static long[] runStore(String[] registers, String[] queried, String[] vals, Timestamp[] stamps) {
+        long before = usedMemory();
+        ABD_Store s = new ABD_Store();
+        long t0 = System.nanoTime();
+        for (Timestamp ts : stamps) {
+            for (int i = 0; i < registers.length; i++) {
+                s.update(registers[i], vals[i], ts.counter, ts.replicaId);
+            }
+        }
+        long t1 = System.nanoTime();
+        for (int r = 0; r < stamps.length; r++) {
+            for (int i = 0; i < registers.length; i++) {
+                int slot = s.find(queried[i]);
+                String value = slot < 0 ? "UNDEF" : s.value(slot);
+                Timestamp ts = slot < 0 ? Timestamp.ZERO : new Timestamp(s.counter(slot), s.writer(slot));
+                sink += ts.counter;
+                sink += value.length();
+            }
+        }
+        long t2 = System.nanoTime();
+        long bytes = usedMemory() - before;
+        sink += s.size();
+        return new long[] { t1 - t0, t2 - t1, bytes };
+    }
+
+    static void report(String name, long[] result, long ops, int nbRegisters) {
+        System.out.printf("%-14s updates: %7.1f Mops/s   queries: %7.1f Mops/s   ~%d bytes/register%n", name,
+                ops * 1000.0 / result[0], ops * 1000.0 / result[1], result[2] / nbRegisters);
+    }
+
+    static long usedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
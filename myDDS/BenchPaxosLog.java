@@ -0,0 +1,156 @@
+package myDDS;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Micro-benchmark of the per-slot Paxos state: MultiPaxos_Log against the
+ * previous layout (ConcurrentHashMaps keyed by boxed log indexes, and a
+ * HashSet of replica ids per slot for the accepts).
+ * Measures the rate of the state updates of handlePropose (acceptor:
+ * record the accepted round and value) and of handleAccept (leader: record
+ * the proposal, count the accepts up to a majority, then decide), with a
+ * checkpoint truncating the log every 1024 slots.
+ * Usage: java myDDS.BenchPaxosLog [slots] [replicas]
+ */
+public class BenchPaxosLog {
+    static final int CHECKPOINT_INTERVAL = 1024;
+
+    // The previous replica layout
+    static class MapLog {
+        ConcurrentHashMap<Integer, QueueOperation> log = new ConcurrentHashMap<>();
+        ConcurrentHashMap<Integer, Integer> acceptedRound = new ConcurrentHashMap<>();
+        ConcurrentHashMap<Integer, QueueOperation> acceptedValue = new ConcurrentHashMap<>();
+        HashMap<Integer, QueueOperation> proposed = new HashMap<>();
+        HashMap<Integer, Set<Integer>> acceptSet = new HashMap<>();
+
+        void truncate(int index) {
+            log.keySet().removeIf(idx -> idx <= index);
+            acceptedRound.keySet().removeIf(idx -> idx <= index);
+            acceptedValue.keySet().removeIf(idx -> idx <= index);
+        }
+    }
+
+    static int sink = 0; // keeps the JIT from removing the work
+
+    public static void main(String args[]) {
+        int slots = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int replicas = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        QueueOperation[] ops = new QueueOperation[CHECKPOINT_INTERVAL];
+        for (int i = 0; i < ops.length; i++) {
+            ops[i] = new QueueOperation(QueueOperation.OperationType.ENQUEUE, i, i % 8, i);
+        }
+
+        System.out.println("Paxos log benchmark: " + slots + " slots, " + replicas + " replicas\n");
+
+        // Warm-up
+        for (int w = 0; w < 3; w++) {
+            proposeMaps(slots / 4, ops);
+            proposeLog(slots / 4, ops);
+            acceptMaps(slots / 4, replicas, ops);
+            acceptLog(slots / 4, replicas, ops);
+        }
+
+        long proposeMaps = proposeMaps(slots, ops);
+        long proposeLog = proposeLog(slots, ops);
+        long acceptMaps = acceptMaps(slots, replicas, ops);
+        long acceptLog = acceptLog(slots, replicas, ops);
+        report("hash maps", proposeMaps, acceptMaps, slots);
+        report("MultiPaxos_Log", proposeLog, acceptLog, slots);
+        System.out.printf("%nhandlePropose speedup: %.2fx, handleAccept speedup: %.2fx%n",
+                (double) proposeMaps / proposeLog, (double) acceptMaps / acceptLog);
+    }
+
+    // Acceptor side of handlePropose: check the slot, record round and value
+    static long proposeMaps(int slots, QueueOperation[] ops) {
+        MapLog s = new MapLog();
+        long t0 = System.nanoTime();
+        for (int idx = 0; idx < slots; idx++) {
+            int round = 3;
+            if (round >= s.acceptedRound.getOrDefault(idx, -1)) {
+                s.acceptedRound.put(idx, round);
+                s.acceptedValue.put(idx, ops[idx % ops.length]);
+            }
+            if ((idx + 1) % CHECKPOINT_INTERVAL == 0) {
+                s.truncate(idx);
+            }
+        }
+        sink += s.acceptedRound.size();
+        return System.nanoTime() - t0;
+    }
+
+    static long proposeLog(int slots, QueueOperation[] ops) {
+        MultiPaxos_Log s = new MultiPaxos_Log();
+        long t0 = System.nanoTime();
+        for (int idx = 0; idx < slots; idx++) {
+            int round = 3;
+            if (round >= s.acceptedRound(idx)) {
+                s.accept(idx, round, ops[idx % ops.length]);
+            }
+            if ((idx + 1) % CHECKPOINT_INTERVAL == 0) {
+                s.truncate(idx);
+            }
+        }
+        sink += s.end();
+        return System.nanoTime() - t0;
+    }
+
+    // Leader side: propose, count the ACCEPTs of the other replicas up to a
+    // majority, decide
+    static long acceptMaps(int slots, int replicas, QueueOperation[] ops) {
+        MapLog s = new MapLog();
+        long t0 = System.nanoTime();
+        for (int idx = 0; idx < slots; idx++) {
+            QueueOperation op = ops[idx % ops.length];
+            s.proposed.put(idx, op);
+            s.acceptedRound.put(idx, 3);
+            s.acceptedValue.put(idx, op);
+            Set<Integer> accepted = new HashSet<>();
+            accepted.add(0);
+            s.acceptSet.put(idx, accepted);
+            for (int r = 1; r < replicas; r++) {
+                Set<Integer> set = s.acceptSet.get(idx);
+                if (set == null) {
+                    continue; // late ACCEPT
+                }
+                set.add(r);
+                if (set.size() > replicas / 2) {
+                    s.acceptSet.remove(idx);
+                    s.log.put(idx, s.proposed.remove(idx));
+                }
+            }
+            if ((idx + 1) % CHECKPOINT_INTERVAL == 0) {
+                s.truncate(idx);
+            }
+        }
+        sink += s.log.size();
+        return System.nanoTime() - t0;
+    }
+
+    static long acceptLog(int slots, int replicas, QueueOperation[] ops) {
+        MultiPaxos_Log s = new MultiPaxos_Log();
+        long t0 = System.nanoTime();
+        for (int idx = 0; idx < slots; idx++) {
+            QueueOperation op = ops[idx % ops.length];
+            s.propose(idx, op, 0);
+            s.accept(idx, 3, op);
+            for (int r = 1; r < replicas; r++) {
+                int accepted = s.addAccept(idx, r);
+                if (accepted > replicas / 2) {
+                    s.decide(idx, s.removeProposal(idx));
+                }
+            }
+            if ((idx + 1) % CHECKPOINT_INTERVAL == 0) {
+                s.truncate(idx);
+            }
+        }
+        sink += s.decidedCount();
+        return System.nanoTime() - t0;
+    }
+
+    static void report(String name, long proposeNs, long acceptNs, int slots) {
+        System.out.printf("%-15s handlePropose: %7.1f Mslots/s   handleAccept: %7.1f Mslots/s%n", name,
+                slots * 1000.0 / proposeNs, slots * 1000.0 / acceptNs);
+    }
+}
@@ -4,4 +4,5 @@ abstract class Channel {
   public abstract void send(Message message);
   public abstract Message receive();
   public abstract boolean isEmpty();
+  public abstract int size();
 }
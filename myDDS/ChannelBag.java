@@ -33,4 +33,8 @@ public class ChannelBag extends Channel {
   public boolean isEmpty() {
     return c.isEmpty();
   }
+
+  public int size() {
+    return c.size();
+  }
 }
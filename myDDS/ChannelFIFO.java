@@ -1,6 +1,7 @@
 package myDDS;
 
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public class ChannelFIFO extends Channel {
 
@@ -27,7 +28,21 @@ public class ChannelFIFO extends Channel {
     }
   }
 
+  // Waits at most "timeoutMs" for a message; null if none arrived
+  public Message receive(long timeoutMs) {
+    try {
+      return (Message)c.poll(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException e) {
+      return null;
+    }
+  }
+
   public boolean isEmpty() {
     return c.isEmpty();
   }
+
+  public int size() {
+    return c.size();
+  }
 }
@@ -0,0 +1,119 @@
+package myDDS;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Client library with pipelined requests.
+ * Every request is tagged with a correlation id (Message.requestId) and
+ * returns a CompletableFuture right away; a receiver thread completes the
+ * futures as the responses carrying the same id arrive, in any order.
+ * Many requests can therefore be outstanding on the same connection.
+ *
+ * Works with DDS and ABD_DDS (registers) and, through
+ * MultiPaxos_ClientSession, with MultiPaxos_DDS (queue).
+ */
+public class ClientSession {
+    protected final int clientId;
+    private final ChannelFIFO commandChannel;
+    private final ChannelFIFO responseChannel;
+    protected final Metadata meta;
+    // next correlation id (invocation number for the queue)
+    private final AtomicLong nextRequestId;
+    // requests waiting for their response
+    private final ConcurrentHashMap<Long, CompletableFuture<Message>> outstanding;
+    private final Thread receiver;
+
+    /**
+     * Sessions are opened by the systems: DDS.openSession,
+     * ABD_DDS.openSession and MultiPaxos_DDS.openSession
+     */
+    ClientSession(int clientId, ChannelFIFO commandChannel, ChannelFIFO responseChannel,
+            long firstRequestId) {
+        this.clientId = clientId;
+        this.commandChannel = commandChannel;
+        this.responseChannel = responseChannel;
+        this.meta = new Metadata(responseChannel);
+        this.nextRequestId = new AtomicLong(firstRequestId);
+        this.outstanding = new ConcurrentHashMap<>();
+        this.receiver = new Thread(this::receiveResponses, "ClientSession-" + clientId);
+        this.receiver.setDaemon(true);
+        this.receiver.start();
+    }
+
+    public CompletableFuture<Message> write(String register, String val) {
+        return submit(new Message(Message.MessageType.CLIENT_WR_REQ, meta, register, val));
+    }
+
+    public CompletableFuture<Message> read(String register) {
+        return submit(new Message(Message.MessageType.CLIENT_RD_REQ, meta, register));
+    }
+
+    /**
+     * Correlation id of the next request
+     */
+    protected long peekRequestId() {
+        return nextRequestId.get();
+    }
+
+    /**
+     * Tag "request" with a fresh correlation id and send it
+     */
+    public synchronized CompletableFuture<Message> submit(Message request) {
+        return submit(request, nextRequestId.getAndIncrement());
+    }
+
+    /**
+     * Tag "request" with "requestId", chosen by the subclass outside of the
+     * sequence of correlation ids, and send it
+     */
+    protected synchronized CompletableFuture<Message> submit(Message request, long requestId) {
+        request.requestId = requestId;
+        CompletableFuture<Message> response = new CompletableFuture<>();
+        outstanding.put(requestId, response);
+        commandChannel.send(request);
+        return response;
+    }
+
+    /**
+     * Number of requests sent and not answered yet
+     */
+    public int outstanding() {
+        return outstanding.size();
+    }
+
+    /**
+     * Ask the system to stop (CLIENT_STOP)
+     */
+    public void stop() {
+        commandChannel.send(new Message(Message.MessageType.CLIENT_STOP));
+    }
+
+    /**
+     * Stop receiving responses; requests still outstanding fail
+     */
+    public void close() {
+        receiver.interrupt();
+        for (CompletableFuture<Message> f : outstanding.values()) {
+            f.completeExceptionally(new IllegalStateException("session of client " + clientId + " closed"));
+        }
+        outstanding.clear();
+    }
+
+    private void receiveResponses() {
+        while (true) {
+            Message response = responseChannel.receive();
+            if (response == null) {
+                return; // interrupted by close()
+            }
+            CompletableFuture<Message> f = outstanding.remove(response.requestId);
+            if (f != null) {
+                f.complete(response);
+            } else {
+                System.out.println("Client " + clientId + " ignoring response to unknown request " +
+                        response.requestId + ": " + response);
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package myDDS;
 
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.*;
 
 public class DDS {
@@ -13,14 +14,25 @@ public class DDS {
   ConcurrentSkipListSet<ClientData> clients;
   // Chain replication: head is replicas[0], tail is replicas[nbReplicas-1]
   boolean useChainReplication = false;
+  // Non-chain mode: policy choosing the replica serving each client request
+  RoutingPolicy routingPolicy;
+  // number of client requests forwarded to each replica
+  AtomicLongArray routedRequests;
 
   public DDS(Channel c, int nbReplicas) {
     this(c, nbReplicas, false);
   }
 
+  public DDS(Channel c, int nbReplicas, RoutingPolicy routingPolicy) {
+    this(c, nbReplicas, false);
+    setRoutingPolicy(routingPolicy);
+  }
+
   public DDS(Channel c, int nbReplicas, boolean useChainReplication) {
     this.nbReplicas = nbReplicas;
     this.useChainReplication = useChainReplication;
+    this.routingPolicy = new RoutingRoundRobin();
+    this.routedRequests = new AtomicLongArray(nbReplicas);
     // Each replica has one incoming channel
     channels = new Channel[nbReplicas];
     replicas = new Replica[nbReplicas];
@@ -54,6 +66,8 @@ public class DDS {
             if (clientRequest.isStop()) {
               // stop all replicas
               broadcast(nbReplicas, clientRequest);
+              if (!useChainReplication)
+                printRoutingStats();
               System.out.println("Stopping the system");
               return;
             } else {
@@ -73,11 +87,12 @@ public class DDS {
                   System.out.println("Forwarding " + clientRequest + " to replica " + replicaIndex);
                 }
               } else {
-                // Original behavior: send to random replica
-                Random temp = new Random(System.currentTimeMillis());
-                replicaIndex = temp.nextInt(nbReplicas);
-                System.out.println("Forwarding " + clientRequest + " to replica " + replicaIndex);
+                // Load-aware routing: the pluggable policy picks the replica
+                replicaIndex = routingPolicy.route(this, clientRequest);
+                System.out.println("Forwarding " + clientRequest + " to replica " + replicaIndex +
+                    " (" + routingPolicy.name() + ")");
               }
+              routedRequests.incrementAndGet(replicaIndex);
               send(clientRequest, replicaIndex);
             }
           }
@@ -86,6 +101,60 @@ public class DDS {
     });
   }
 
+  // Change the routing policy used in non-chain mode (before start())
+  public void setRoutingPolicy(RoutingPolicy routingPolicy) {
+    this.routingPolicy = routingPolicy;
+  }
+
+  // Non-chain mode: every replica periodically reconciles its registers with
+  // a peer (Merkle digests, versions of the differing buckets, then only the
+  // stale entries); call before start()
+  public void enableAntiEntropy(long periodMs) {
+    if (useChainReplication) {
+      System.out.println("Warning: anti-entropy is only used without Chain Replication. Ignored.");
+      return;
+    }
+    for (int i = 0; i < nbReplicas; i++)
+      replicas[i].antiEntropyPeriodMs = periodMs;
+  }
+
+  // Chain mode: the tail keeps up to "capacity" read responses, invalidated by
+  // the writes it applies; call before start()
+  public void enableTailReadCache(int capacity) {
+    if (!useChainReplication) {
+      System.out.println("Warning: the tail read cache requires Chain Replication. Ignored.");
+      return;
+    }
+    replicas[nbReplicas - 1].readCache = new ReadCache(capacity);
+  }
+
+  // Every replica applies messages on "lanes" worker threads, partitioned by
+  // register: order is kept per register, other registers run in parallel;
+  // call before start()
+  public void setApplyLanes(int lanes) {
+    for (int i = 0; i < nbReplicas; i++)
+      replicas[i].applyLanes = lanes;
+  }
+
+  // Number of client requests forwarded to replica "id" so far
+  public long routedCount(int id) {
+    return routedRequests.get(id);
+  }
+
+  // How the client requests were spread over the replicas
+  public String routingStats() {
+    StringBuilder sb = new StringBuilder("Routing (" + routingPolicy.name() + "):");
+    for (int i = 0; i < nbReplicas; i++)
+      sb.append(" replica ").append(i).append("=").append(routedRequests.get(i))
+          .append(" (depth ").append(queueDepth(i)).append(")");
+    return sb.toString();
+  }
+
+  // Print how the client requests were spread over the replicas
+  public void printRoutingStats() {
+    System.out.println(routingStats());
+  }
+
   public Replica replicaOf(int id) {
     assert id < replicas.length;
     return replicas[id];
@@ -119,6 +188,12 @@ public class DDS {
     return inChannel;
   }
 
+  // Connect client "clientId" through a session that pipelines its requests
+  public ClientSession openSession(int clientId) {
+    ChannelFIFO responseChannel = new ChannelFIFO();
+    return new ClientSession(clientId, connect(clientId, responseChannel), responseChannel, 1);
+  }
+
   // Send a message to replica with id "destination"
   public void send(Message message, int destination) {
     assert destination < replicas.length;
@@ -144,4 +219,10 @@ public class DDS {
     return channels[replica].isEmpty();
   }
 
+  // Number of messages waiting in the incoming channel of replica "replica"
+  public int queueDepth(int replica) {
+    assert replica < replicas.length;
+    return channels[replica].size();
+  }
+
 }
@@ -1,22 +1,18 @@
 package myDDS;
 
-import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class HashMapStorage extends Storage
 {
-  // the storage is an in-memory hashmap
-  HashMap<String, String> state = new HashMap<String, String>();
+  // the storage is an in-memory hashmap (concurrent, for apply lanes)
+  ConcurrentHashMap<String, String> state = new ConcurrentHashMap<String, String>();
 
   public HashMapStorage() {
 
   }
 
   public String read(String key) {
-    String result = "UNDEF";
-    if (state.containsKey(key)) {
-      result = state.get(key);
-    }
-    return result;
+    return state.getOrDefault(key, "UNDEF");
   }
 
   public void write(String key, String val) {
@@ -0,0 +1,93 @@
+package myDDS;
+
+import java.util.*;
+
+// Merkle tree over the registers of a replica, used by anti-entropy.
+// Registers are spread over a fixed number of buckets (the leaves) by the
+// hash of their name. A leaf is the XOR of the hashes of its entries, so a
+// write updates its leaf and the path to the root in O(log leaves) without
+// rescanning the storage (updates may come from several apply lanes). Two
+// replicas holding the same (register, value, version) entries have
+// identical trees, and the buckets where they differ are found by
+// descending only into subtrees whose hashes differ.
+public class MerkleTree {
+  // number of buckets (power of two)
+  int leaves;
+  // heap layout: nodes[1] is the root, leaf b is nodes[leaves + b]
+  long[] nodes;
+
+  public MerkleTree(int leaves) {
+    assert Integer.bitCount(leaves) == 1;
+    this.leaves = leaves;
+    nodes = new long[2 * leaves];
+  }
+
+  // The bucket holding register "key"
+  public int bucketOf(String key) {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return h & (leaves - 1);
+  }
+
+  // Replace the contribution of an entry of bucket "bucket"; 0 stands for
+  // "no entry"
+  public synchronized void update(int bucket, long oldEntryHash, long newEntryHash) {
+    int i = leaves + bucket;
+    nodes[i] ^= oldEntryHash ^ newEntryHash;
+    for (i >>>= 1; i >= 1; i >>>= 1)
+      nodes[i] = combine(nodes[2 * i], nodes[2 * i + 1]);
+  }
+
+  public synchronized long root() {
+    return nodes[1];
+  }
+
+  // Copy of the tree, to be shipped to a peer
+  public synchronized long[] snapshot() {
+    return nodes.clone();
+  }
+
+  // Buckets whose content differs from the tree "remote" of a peer
+  public synchronized List<Integer> diff(long[] remote) {
+    List<Integer> result = new ArrayList<Integer>();
+    if (remote.length != nodes.length) {
+      // different shapes: everything has to be compared
+      for (int b = 0; b < leaves; b++)
+        result.add(b);
+      return result;
+    }
+    diff(1, remote, result);
+    return result;
+  }
+
+  private void diff(int node, long[] remote, List<Integer> result) {
+    if (nodes[node] == remote[node])
+      return;
+    if (node >= leaves) {
+      result.add(node - leaves);
+      return;
+    }
+    diff(2 * node, remote, result);
+    diff(2 * node + 1, remote, result);
+  }
+
+  // Hash of one (register, value, version) entry, never 0
+  public static long entryHash(String key, String value, Timestamp version) {
+    long h = mix(key.hashCode());
+    h = mix(h ^ (value == null ? 0 : value.hashCode()));
+    h = mix(h ^ version.counter);
+    h = mix(h ^ version.replicaId);
+    return h == 0 ? 1 : h;
+  }
+
+  private static long combine(long left, long right) {
+    return mix(left * 31 + right);
+  }
+
+  // 64-bit finalizer of SplitMix64
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+}
@@ -8,13 +8,21 @@ public class Message implements Comparable
     CLIENT_STOP,
     REPLICA_WR_ACK,
     REPLICA_RD_ACK,
-    REPLICA_WR_UPD
+    REPLICA_WR_UPD,
+    REPLICA_ANTI_ENTROPY,
+    // the request failed; "val" says why
+    REPLICA_ERROR
   }
 
   MessageType type;
   Metadata meta;
   String register;
   String val;
+  // version of "val" (eventual consistency mode), used for last-writer-wins
+  Timestamp version;
+  // correlation id chosen by the client; responses carry the id of the
+  // request they answer (0 for clients that do not tag their requests)
+  long requestId = 0;
 
   Message(MessageType t, Metadata meta, String register, String val) {
     this.type = t;
@@ -44,13 +52,25 @@ public class Message implements Comparable
     this.type = t;
   }
 
+  // Copy of this response answering request "requestId" (responses may be
+  // shared, e.g. by the read cache, and are never modified once sent)
+  Message answering(long requestId) {
+    Message copy = new Message(type, meta, register, val);
+    copy.version = version;
+    copy.requestId = requestId;
+    return copy;
+  }
+
   public boolean isStop() {
     return type == MessageType.CLIENT_STOP;
   }
 
   public int compareTo(Object o) {
     Message temp = (Message) o;
-    return this.toString().compareTo(temp.toString());
+    int c = this.toString().compareTo(temp.toString());
+    // identical requests of a pipelining client must not collapse into one
+    // element of a bag channel
+    return c != 0 ? c : Long.compare(this.requestId, temp.requestId);
   }
 
   @Override
@@ -67,7 +87,12 @@ public class Message implements Comparable
       case REPLICA_RD_ACK:
         return "Replica acknowledging a read request";
       case REPLICA_WR_UPD:
-        return "Remote replica update writing value [" + val + "] to register [" + register+"]";
+        return "Remote replica update writing value [" + val + "] to register [" + register+"]" +
+            (version != null ? " version " + version : "");
+      case REPLICA_ANTI_ENTROPY:
+        return "Replica anti-entropy exchange";
+      case REPLICA_ERROR:
+        return "Request on register [" + register + "] failed: " + val;
 
     }
     return null;
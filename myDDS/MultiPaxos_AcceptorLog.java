@@ -0,0 +1,303 @@
+package myDDS;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Durable acceptor state of a MultiPaxos_Replica: an append-only file of
+ * PROMISE(round) and ACCEPT(logIndex, round, operation) records, written
+ * before the replica answers the PREPARE or PROPOSE. When the replica
+ * checkpoints, the file is rewritten with the checkpoint, the promised
+ * round and the accepts after the checkpoint only.
+ * Each record is [length][payload][crc32], so that a record torn by a crash
+ * in the middle of a write is detected and dropped on recovery.
+ * The fsync policy says when the records reach the disk:
+ * - NONE: written to the OS before the replies, never fsynced (survives a
+ *   process crash, not a machine crash)
+ * - ALWAYS: fsync after every record
+ * - GROUP: fsync once for all the records appended since the last sync()
+ *   (the replica syncs before sending the replies it held back)
+ * Not thread-safe: used by its replica thread only.
+ */
+public class MultiPaxos_AcceptorLog implements Closeable {
+
+    public enum FsyncPolicy {
+        NONE,
+        ALWAYS,
+        GROUP
+    }
+
+    private static final byte PROMISE = 1;
+    private static final byte ACCEPT = 2;
+    private static final byte CHECKPOINT = 3;
+
+    private final File file;
+    private final FsyncPolicy policy;
+    private FileOutputStream fos;
+    private DataOutputStream out;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    private boolean dirty = false; // records appended since the last sync()
+    private long fsyncs = 0;
+
+    // State read back by recover()
+    private int promisedRound = 0;
+    private MultiPaxos_Checkpoint checkpoint = null;
+    private final TreeMap<Integer, Integer> acceptedRounds = new TreeMap<>();
+    private final TreeMap<Integer, QueueOperation> acceptedValues = new TreeMap<>();
+
+    /**
+     * Open (or create) "file", recovering the records it holds; a torn
+     * record at the end is cut off
+     */
+    public MultiPaxos_AcceptorLog(File file, FsyncPolicy policy) throws IOException {
+        this.file = file;
+        this.policy = policy;
+        long valid = recover();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() > valid) {
+                System.out.println("Acceptor log " + file + ": dropping " + (raf.length() - valid) +
+                        " bytes of torn records");
+                raf.setLength(valid);
+            }
+        }
+        openForAppend();
+    }
+
+    private void openForAppend() throws IOException {
+        fos = new FileOutputStream(file, true);
+        out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+    }
+
+    /**
+     * Replay the records of the file; returns the length of the valid prefix
+     */
+    private long recover() throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                byte[] payload;
+                long storedCrc;
+                try {
+                    length = in.readInt();
+                    if (length <= 0 || length > (1 << 24)) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    storedCrc = in.readInt() & 0xffffffffL;
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(payload);
+                if (crc.getValue() != storedCrc) {
+                    break;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(payload)));
+                valid += 4 + length + 4;
+            }
+        }
+        return valid;
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        if (type == PROMISE) {
+            promisedRound = Math.max(promisedRound, in.readInt());
+        } else if (type == ACCEPT) {
+            int logIdx = in.readInt();
+            int round = in.readInt();
+            QueueOperation op = readOperation(in);
+            promisedRound = Math.max(promisedRound, round);
+            if (round >= acceptedRounds.getOrDefault(logIdx, -1)) {
+                acceptedRounds.put(logIdx, round);
+                acceptedValues.put(logIdx, op);
+            }
+        } else if (type == CHECKPOINT) {
+            int index = in.readInt();
+            List<Integer> queue = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                queue.add(in.readInt());
+            }
+            Map<Integer, Integer> nextInvocation = new TreeMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                nextInvocation.put(in.readInt(), in.readInt());
+            }
+            checkpoint = new MultiPaxos_Checkpoint(index, queue, nextInvocation);
+        } else {
+            throw new IOException("unknown record type " + type);
+        }
+    }
+
+    public int promisedRound() {
+        return promisedRound;
+    }
+
+    /**
+     * Checkpoint recovered (null: none)
+     */
+    public MultiPaxos_Checkpoint checkpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Accepted rounds recovered, per log index
+     */
+    public Map<Integer, Integer> acceptedRounds() {
+        return acceptedRounds;
+    }
+
+    /**
+     * Accepted values recovered, per log index
+     */
+    public Map<Integer, QueueOperation> acceptedValues() {
+        return acceptedValues;
+    }
+
+    public FsyncPolicy policy() {
+        return policy;
+    }
+
+    /**
+     * Number of fsyncs so far
+     */
+    public long fsyncs() {
+        return fsyncs;
+    }
+
+    public void appendPromise(int round) throws IOException {
+        recordOut.writeByte(PROMISE);
+        recordOut.writeInt(round);
+        append();
+    }
+
+    public void appendAccept(int logIdx, int round, QueueOperation op) throws IOException {
+        recordOut.writeByte(ACCEPT);
+        recordOut.writeInt(logIdx);
+        recordOut.writeInt(round);
+        writeOperation(recordOut, op);
+        append();
+    }
+
+    private void append() throws IOException {
+        recordOut.flush();
+        crc.reset();
+        crc.update(record.toByteArray());
+        out.writeInt(record.size());
+        record.writeTo(out);
+        out.writeInt((int) crc.getValue());
+        record.reset();
+        dirty = true;
+        if (policy == FsyncPolicy.ALWAYS) {
+            sync();
+        }
+    }
+
+    /**
+     * Make the records appended so far durable (according to the policy)
+     * before the replies that depend on them are sent
+     */
+    public void sync() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        out.flush();
+        if (policy != FsyncPolicy.NONE) {
+            fos.getChannel().force(false);
+            fsyncs++;
+        }
+        dirty = false;
+    }
+
+    /**
+     * Rewrite the file with only "cp", "promisedRound" and the accepts of the
+     * log indexes after "cp" (atomically: the old file stays until the new
+     * one is durable)
+     */
+    public void compact(MultiPaxos_Checkpoint cp, int promisedRound, Map<Integer, Integer> rounds,
+            Map<Integer, QueueOperation> values) throws IOException {
+        sync();
+        out.close();
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream tmpFos = new FileOutputStream(tmp)) {
+            fos = tmpFos;
+            out = new DataOutputStream(new BufferedOutputStream(tmpFos));
+            recordOut.writeByte(CHECKPOINT);
+            recordOut.writeInt(cp.index);
+            recordOut.writeInt(cp.queue.size());
+            for (int value : cp.queue) {
+                recordOut.writeInt(value);
+            }
+            recordOut.writeInt(cp.nextInvocation.size());
+            for (Map.Entry<Integer, Integer> e : cp.nextInvocation.entrySet()) {
+                recordOut.writeInt(e.getKey());
+                recordOut.writeInt(e.getValue());
+            }
+            append();
+            appendPromise(promisedRound);
+            for (Map.Entry<Integer, QueueOperation> e : values.entrySet()) {
+                appendAccept(e.getKey(), rounds.get(e.getKey()), e.getValue());
+            }
+            out.flush();
+            tmpFos.getChannel().force(false);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+        openForAppend();
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        out.close();
+    }
+
+    static void writeOperation(DataOutputStream out, QueueOperation op) throws IOException {
+        out.writeByte(op.getType().ordinal());
+        switch (op.getType()) {
+            case NOOP:
+                break;
+            case BATCH:
+                out.writeInt(op.operations().size());
+                for (QueueOperation single : op.operations()) {
+                    writeOperation(out, single);
+                }
+                break;
+            default:
+                out.writeBoolean(op.getValue() != null);
+                out.writeInt(op.getValue() != null ? op.getValue() : 0);
+                out.writeInt(op.getClientId());
+                out.writeInt(op.getInvocationNum());
+        }
+    }
+
+    static QueueOperation readOperation(DataInputStream in) throws IOException {
+        QueueOperation.OperationType type = QueueOperation.OperationType.values()[in.readByte()];
+        switch (type) {
+            case NOOP:
+                return QueueOperation.noop();
+            case BATCH:
+                int size = in.readInt();
+                List<QueueOperation> ops = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    ops.add(readOperation(in));
+                }
+                return QueueOperation.batch(ops);
+            default:
+                boolean hasValue = in.readBoolean();
+                int value = in.readInt();
+                return new QueueOperation(type, hasValue ? value : null, in.readInt(), in.readInt());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package myDDS;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checkpoint of a Multi-Paxos replica: the queue after executing every log
+ * entry up to "index", and the next invocation expected from each client.
+ * A replica keeps its latest checkpoint and forgets the log entries it
+ * covers; a replica missing some of them installs the checkpoint instead.
+ */
+public class MultiPaxos_Checkpoint implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final int index; // last log index executed in the checkpoint (-1: empty log)
+    final List<Integer> queue; // queue contents, head first
+    final Map<Integer, Integer> nextInvocation; // client id -> next expected invocation number
+
+    MultiPaxos_Checkpoint(int index, Iterable<Integer> queue, Map<Integer, Integer> nextInvocation) {
+        this.index = index;
+        List<Integer> copy = new ArrayList<>();
+        for (Integer value : queue) {
+            copy.add(value);
+        }
+        this.queue = Collections.unmodifiableList(copy);
+        this.nextInvocation = Collections.unmodifiableMap(new HashMap<>(nextInvocation));
+    }
+
+    @Override
+    public String toString() {
+        return "checkpoint at logIndex " + index + " (" + queue.size() + " queued)";
+    }
+}
@@ -0,0 +1,65 @@
+package myDDS;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Pipelined client session on the Multi-Paxos queue.
+ * The correlation id of a request is the invocation number of its
+ * QueueOperation, so replicas keep executing the invocations of the client
+ * in order and answer with the invocation number they executed.
+ */
+public class MultiPaxos_ClientSession extends ClientSession {
+    // correlation ids of the reads: negative, so that they take no
+    // invocation number
+    private long nextReadId = -1;
+
+    MultiPaxos_ClientSession(int clientId, ChannelFIFO commandChannel, ChannelFIFO responseChannel) {
+        // replicas expect the invocations of a client to be numbered from 0
+        super(clientId, commandChannel, responseChannel, 0);
+    }
+
+    public CompletableFuture<Message> enqueue(int value) {
+        return submit(QueueOperation.OperationType.ENQUEUE, value);
+    }
+
+    public CompletableFuture<Message> dequeue() {
+        return submit(QueueOperation.OperationType.DEQUEUE, null);
+    }
+
+    /**
+     * Head of the queue (readResult null if empty)
+     */
+    public CompletableFuture<Message> peek() {
+        return read(QueueOperation.OperationType.PEEK, null);
+    }
+
+    /**
+     * Number of elements in the queue
+     */
+    public CompletableFuture<Message> size() {
+        return read(QueueOperation.OperationType.SIZE, null);
+    }
+
+    /**
+     * Whether the queue holds "value" (readResult 1, 0 otherwise)
+     */
+    public CompletableFuture<Message> contains(int value) {
+        return read(QueueOperation.OperationType.CONTAINS, value);
+    }
+
+    /**
+     * Reads are served by the leader without a log entry; the operation
+     * carries the invocation number of the next write, so that the read
+     * sees the writes submitted before it
+     */
+    private synchronized CompletableFuture<Message> read(QueueOperation.OperationType type, Integer value) {
+        QueueOperation op = new QueueOperation(type, value, clientId, (int) peekRequestId());
+        return submit(new MultiPaxos_Message(meta, op), nextReadId--);
+    }
+
+    private synchronized CompletableFuture<Message> submit(QueueOperation.OperationType type, Integer value) {
+        int invocationNum = (int) peekRequestId();
+        QueueOperation op = new QueueOperation(type, value, clientId, invocationNum);
+        return submit(new MultiPaxos_Message(meta, op));
+    }
+}
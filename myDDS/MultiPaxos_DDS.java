@@ -1,6 +1,10 @@
 package myDDS;
 
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.*;
 
 /**
@@ -18,15 +22,58 @@ public class MultiPaxos_DDS {
     Channel[] channels;
     // thread handling client requests
     Thread gateway;
+    // timer thread shared by the replicas (heartbeats and election timeouts)
+    ScheduledExecutorService scheduler;
     // the clients connected to this DDS
     ConcurrentSkipListSet<ClientData> clients;
+    // where to send the responses of each client (client id -> outChannel)
+    ConcurrentHashMap<Integer, ChannelFIFO> responseChannels;
+    // maximum number of log indexes the leader proposes before they are
+    // decided (1: no pipelining)
+    int window = 8;
+    // maximum number of client operations per log entry, and how long the
+    // leader may hold a partial batch while proposals are in flight
+    int maxBatch = 32;
+    long batchDelayMs = 2;
+    // replicas checkpoint their queue and truncate their log every
+    // checkpointInterval log entries
+    int checkpointInterval = 1024;
+    // a replica missing decided entries below the highest one it knows for
+    // catchupDelayMs requests them from a peer, which streams them back
+    // catchupBatch entries per message
+    int catchupBatch = 64;
+    long catchupDelayMs = 20;
+    // the leader sends a heartbeat every heartbeatMs; a replica hearing no
+    // leader for a random time between electionTimeoutMs and twice that
+    // starts a new round
+    long heartbeatMs = 10;
+    long electionTimeoutMs = 50;
+    // a majority answering a heartbeat grants the leader a lease of leaseMs
+    // from the time it sent it, ended driftBoundMs early by the leader to
+    // absorb clock drift (0: no leases)
+    long leaseMs = 40;
+    long leaseDriftMs = 5;
+    // directory of the acceptor logs of the replicas (null: acceptor state
+    // in memory only), and when they are fsynced
+    File dataDir = null;
+    MultiPaxos_AcceptorLog.FsyncPolicy fsyncPolicy = MultiPaxos_AcceptorLog.FsyncPolicy.GROUP;
 
     public MultiPaxos_DDS(int nbReplicas) {
+        if (nbReplicas < 1 || nbReplicas > MultiPaxos_Log.MAX_REPLICAS) {
+            throw new IllegalArgumentException("between 1 and " + MultiPaxos_Log.MAX_REPLICAS +
+                    " replicas: " + nbReplicas);
+        }
         this.nbReplicas = nbReplicas;
         // Each replica has one incoming channel (Bag type for replica-to-replica)
         channels = new Channel[nbReplicas];
         replicas = new MultiPaxos_Replica[nbReplicas];
         clients = new ConcurrentSkipListSet<ClientData>();
+        responseChannels = new ConcurrentHashMap<>();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread timer = new Thread(r, "paxos-timer");
+            timer.setDaemon(true);
+            return timer;
+        });
 
         System.out.println("MultiPaxos_DDS initialized with " + nbReplicas + " replicas");
         System.out.println("Replica-to-replica channels: Bag (unordered)");
@@ -60,7 +107,7 @@ public class MultiPaxos_DDS {
                     }
                 }
                 try {
-                    Thread.sleep(10);
+                    Thread.sleep(1);
                 } catch (InterruptedException e) {
                     break;
                 }
@@ -72,13 +119,120 @@ public class MultiPaxos_DDS {
      * Register a client
      */
     public void registerClient(ClientData client) {
+        responseChannels.put(client.id, client.outChannel);
         clients.add(client);
         System.out.println("Client " + client.id + " registered");
     }
 
     /**
-     * Send message to specific replica
+     * Send "response" to client "clientId" (dropped if the client is unknown)
      */
+    public void respond(int clientId, Message response) {
+        ChannelFIFO out = responseChannels.get(clientId);
+        if (out == null) {
+            System.out.println("No channel to client " + clientId + ", dropping " + response);
+            return;
+        }
+        out.send(response);
+    }
+
+    /**
+     * Register client "clientId" through a session that pipelines its
+     * operations
+     */
+    public MultiPaxos_ClientSession openSession(int clientId) {
+        ChannelFIFO commandChannel = new ChannelFIFO();
+        ChannelFIFO responseChannel = new ChannelFIFO();
+        registerClient(new ClientData(clientId, commandChannel, responseChannel));
+        return new MultiPaxos_ClientSession(clientId, commandChannel, responseChannel);
+    }
+
+    /**
+     * Let the leader keep up to "window" proposals in flight (before start)
+     */
+    public void setWindow(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be at least 1: " + window);
+        }
+        this.window = window;
+    }
+
+    /**
+     * Decide up to "maxBatch" client operations per log entry, holding a
+     * partial batch for at most "maxDelayMs" (before start; 1: no batching)
+     */
+    public void setBatching(int maxBatch, long maxDelayMs) {
+        if (maxBatch < 1 || maxDelayMs < 0) {
+            throw new IllegalArgumentException("invalid batching: " + maxBatch + " operations, " + maxDelayMs + " ms");
+        }
+        this.maxBatch = maxBatch;
+        this.batchDelayMs = maxDelayMs;
+    }
+
+    /**
+     * Checkpoint the queue every "interval" log entries (before start)
+     */
+    public void setCheckpointInterval(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("checkpoint interval must be at least 1: " + interval);
+        }
+        this.checkpointInterval = interval;
+    }
+
+    /**
+     * Let a replica missing decided entries for "delayMs" request them from
+     * a peer, streamed back "batch" entries per message (before start)
+     */
+    public void setCatchup(int batch, long delayMs) {
+        if (batch < 1 || delayMs < 1) {
+            throw new IllegalArgumentException("invalid catch-up: " + batch + " entries, " + delayMs + " ms");
+        }
+        this.catchupBatch = batch;
+        this.catchupDelayMs = delayMs;
+    }
+
+    /**
+     * Heartbeat the replicas every "heartbeatMs" from the leader, and start
+     * a new round after a random time between "electionTimeoutMs" and twice
+     * that without hearing the leader (before start)
+     */
+    public void setFailureDetector(long heartbeatMs, long electionTimeoutMs) {
+        if (heartbeatMs < 1 || electionTimeoutMs <= heartbeatMs || electionTimeoutMs <= leaseMs) {
+            throw new IllegalArgumentException("invalid failure detector: heartbeat " + heartbeatMs +
+                    " ms, election timeout " + electionTimeoutMs + " ms (lease " + leaseMs + " ms)");
+        }
+        this.heartbeatMs = heartbeatMs;
+        this.electionTimeoutMs = electionTimeoutMs;
+    }
+
+    /**
+     * Grant the leader leases of "leaseMs" (shorter than the election
+     * timeout), considered expired by the leader "driftBoundMs" early
+     * (before start; 0: no leases)
+     */
+    public void setLeaderLease(long leaseMs, long driftBoundMs) {
+        if (leaseMs < 0 || leaseMs >= electionTimeoutMs || driftBoundMs < 0
+                || (leaseMs > 0 && driftBoundMs >= leaseMs)) {
+            throw new IllegalArgumentException("invalid lease: " + leaseMs + " ms, drift bound " + driftBoundMs +
+                    " ms (election timeout " + electionTimeoutMs + " ms)");
+        }
+        this.leaseMs = leaseMs;
+        this.leaseDriftMs = driftBoundMs;
+    }
+
+    /**
+     * Persist the acceptor state of replica i in "dir"/replica-i.log, synced
+     * according to "policy"; the replicas recover it when they start
+     * (before start)
+     */
+    public void setDurability(File dir, MultiPaxos_AcceptorLog.FsyncPolicy policy) {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalArgumentException("cannot create directory " + dir);
+        }
+        this.dataDir = dir;
+        this.fsyncPolicy = policy;
+    }
+
     /**
      * Get all replicas (for testing/verification)
      */
@@ -86,6 +240,9 @@ public class MultiPaxos_DDS {
         return replicas;
     }
 
+    /**
+     * Send message to specific replica
+     */
     public void send(Message m, int replicaId) {
         channels[replicaId].send(m);
     }
@@ -133,6 +290,8 @@ public class MultiPaxos_DDS {
             }
         }
 
+        scheduler.shutdownNow();
+
         // Stop gateway
         gateway.interrupt();
         try {
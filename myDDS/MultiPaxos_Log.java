@@ -0,0 +1,290 @@
+package myDDS;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per-slot state of a MultiPaxos_Replica: log index -> (accepted round,
+ * accepted value, decided value, and for the leader the proposal in flight
+ * with the replicas that accepted it).
+ * Log indexes are dense and increasing, so the slots from "base" (the first
+ * index after the checkpoint) to "end" live in a ring of parallel arrays
+ * indexed by logIndex modulo the capacity: no boxing and no hashing per
+ * message. The acceptances of a slot are a bitset of replica ids (at most
+ * MAX_REPLICAS replicas).
+ * Not thread-safe: used by its replica thread only.
+ */
+public class MultiPaxos_Log {
+    public static final int MAX_REPLICAS = 64;
+
+    private int[] acceptedRounds; // -1: nothing accepted
+    private QueueOperation[] acceptedValues;
+    private QueueOperation[] decided;
+    private QueueOperation[] proposed;
+    private long[] acceptMasks;
+    private int base = 0; // slots below it are truncated
+    private int end = 0; // one past the highest slot stored
+    private int decidedCount = 0;
+    private int proposedCount = 0;
+
+    public MultiPaxos_Log() {
+        this(64);
+    }
+
+    public MultiPaxos_Log(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        acceptedRounds = new int[capacity];
+        Arrays.fill(acceptedRounds, -1);
+        acceptedValues = new QueueOperation[capacity];
+        decided = new QueueOperation[capacity];
+        proposed = new QueueOperation[capacity];
+        acceptMasks = new long[capacity];
+    }
+
+    /**
+     * First log index stored (the ones below were truncated)
+     */
+    public int base() {
+        return base;
+    }
+
+    /**
+     * One past the highest log index stored
+     */
+    public int end() {
+        return end;
+    }
+
+    private boolean stored(int logIdx) {
+        return logIdx >= base && logIdx < end;
+    }
+
+    /**
+     * Position of "logIdx" in the arrays, growing them if needed
+     */
+    private int slot(int logIdx) {
+        if (logIdx < base) {
+            throw new IllegalArgumentException("logIndex " + logIdx + " truncated (base " + base + ")");
+        }
+        if (logIdx - base >= acceptedRounds.length) {
+            grow(logIdx - base + 1);
+        }
+        if (logIdx >= end) {
+            end = logIdx + 1;
+        }
+        return logIdx & (acceptedRounds.length - 1);
+    }
+
+    private void grow(int minCapacity) {
+        int[] oldRounds = acceptedRounds;
+        QueueOperation[] oldValues = acceptedValues;
+        QueueOperation[] oldDecided = decided;
+        QueueOperation[] oldProposed = proposed;
+        long[] oldMasks = acceptMasks;
+        int oldMask = oldRounds.length - 1;
+
+        int capacity = oldRounds.length;
+        while (capacity < minCapacity) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int idx = base; idx < end; idx++) {
+            int from = idx & oldMask;
+            int to = idx & mask;
+            acceptedRounds[to] = oldRounds[from];
+            acceptedValues[to] = oldValues[from];
+            decided[to] = oldDecided[from];
+            proposed[to] = oldProposed[from];
+            acceptMasks[to] = oldMasks[from];
+        }
+    }
+
+    // Acceptor state
+
+    /**
+     * Highest round a value was accepted in at "logIdx" (-1: none)
+     */
+    public int acceptedRound(int logIdx) {
+        return stored(logIdx) ? acceptedRounds[logIdx & (acceptedRounds.length - 1)] : -1;
+    }
+
+    public QueueOperation acceptedValue(int logIdx) {
+        return stored(logIdx) ? acceptedValues[logIdx & (acceptedValues.length - 1)] : null;
+    }
+
+    public void accept(int logIdx, int round, QueueOperation op) {
+        int s = slot(logIdx);
+        acceptedRounds[s] = round;
+        acceptedValues[s] = op;
+    }
+
+    /**
+     * Accepted rounds of the slots >= "logIdx" (for a PROMISE)
+     */
+    public TreeMap<Integer, Integer> acceptedRoundsFrom(int logIdx) {
+        TreeMap<Integer, Integer> rounds = new TreeMap<>();
+        for (int idx = Math.max(logIdx, base); idx < end; idx++) {
+            int round = acceptedRound(idx);
+            if (round >= 0) {
+                rounds.put(idx, round);
+            }
+        }
+        return rounds;
+    }
+
+    /**
+     * Accepted values of the slots >= "logIdx" (for a PROMISE)
+     */
+    public TreeMap<Integer, QueueOperation> acceptedValuesFrom(int logIdx) {
+        TreeMap<Integer, QueueOperation> values = new TreeMap<>();
+        for (int idx = Math.max(logIdx, base); idx < end; idx++) {
+            QueueOperation op = acceptedValue(idx);
+            if (op != null) {
+                values.put(idx, op);
+            }
+        }
+        return values;
+    }
+
+    // Decided log
+
+    /**
+     * Value decided at "logIdx" (null: not decided yet, or truncated)
+     */
+    public QueueOperation decided(int logIdx) {
+        return stored(logIdx) ? decided[logIdx & (decided.length - 1)] : null;
+    }
+
+    /**
+     * Record the decision "op" at "logIdx"; returns whether it is new
+     */
+    public boolean decide(int logIdx, QueueOperation op) {
+        int s = slot(logIdx);
+        boolean isNew = decided[s] == null;
+        decided[s] = op;
+        if (isNew) {
+            decidedCount++;
+        }
+        return isNew;
+    }
+
+    /**
+     * Number of decided entries stored
+     */
+    public int decidedCount() {
+        return decidedCount;
+    }
+
+    /**
+     * Copy of the decided entries stored
+     */
+    public Map<Integer, QueueOperation> decidedEntries() {
+        TreeMap<Integer, QueueOperation> entries = new TreeMap<>();
+        for (int idx = base; idx < end; idx++) {
+            QueueOperation op = decided(idx);
+            if (op != null) {
+                entries.put(idx, op);
+            }
+        }
+        return Collections.unmodifiableMap(entries);
+    }
+
+    // Leader state
+
+    /**
+     * Proposal in flight at "logIdx" (null: none)
+     */
+    public QueueOperation proposed(int logIdx) {
+        return stored(logIdx) ? proposed[logIdx & (proposed.length - 1)] : null;
+    }
+
+    /**
+     * Number of proposals in flight
+     */
+    public int proposedCount() {
+        return proposedCount;
+    }
+
+    /**
+     * Record the proposal "op" at "logIdx", accepted by the leader "leaderId"
+     */
+    public void propose(int logIdx, QueueOperation op, int leaderId) {
+        int s = slot(logIdx);
+        if (proposed[s] == null) {
+            proposedCount++;
+        }
+        proposed[s] = op;
+        acceptMasks[s] = 1L << leaderId;
+    }
+
+    /**
+     * Record that "replicaId" accepted the proposal at "logIdx"; returns the
+     * number of replicas that accepted it (0: no proposal in flight there)
+     */
+    public int addAccept(int logIdx, int replicaId) {
+        if (proposed(logIdx) == null) {
+            return 0;
+        }
+        int s = logIdx & (acceptMasks.length - 1);
+        acceptMasks[s] |= 1L << replicaId;
+        return Long.bitCount(acceptMasks[s]);
+    }
+
+    /**
+     * Remove and return the proposal in flight at "logIdx" (null: none)
+     */
+    public QueueOperation removeProposal(int logIdx) {
+        QueueOperation op = proposed(logIdx);
+        if (op != null) {
+            int s = logIdx & (proposed.length - 1);
+            proposed[s] = null;
+            acceptMasks[s] = 0;
+            proposedCount--;
+        }
+        return op;
+    }
+
+    /**
+     * Drop every proposal in flight (the leader stepped down)
+     */
+    public void clearProposals() {
+        for (int idx = base; idx < end && proposedCount > 0; idx++) {
+            removeProposal(idx);
+        }
+    }
+
+    /**
+     * Forget the slots up to "logIdx" (covered by a checkpoint)
+     */
+    public void truncate(int logIdx) {
+        int mask = acceptedRounds.length - 1;
+        for (int idx = base; idx <= logIdx && idx < end; idx++) {
+            int s = idx & mask;
+            if (decided[s] != null) {
+                decidedCount--;
+            }
+            if (proposed[s] != null) {
+                proposedCount--;
+            }
+            acceptedRounds[s] = -1;
+            acceptedValues[s] = null;
+            decided[s] = null;
+            proposed[s] = null;
+            acceptMasks[s] = 0;
+        }
+        if (logIdx + 1 > base) {
+            base = logIdx + 1;
+            end = Math.max(end, base);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package myDDS;
 
+import java.util.Map;
+
 /**
  * Message class for Multi-Paxos algorithm
  * This extends the base Message class with Multi-Paxos specific fields
@@ -14,8 +16,9 @@ public class MultiPaxos_Message extends Message {
         // Client operations
         CLIENT_REQUEST, // Client submits enqueue/dequeue operation
 
-        // Phase 1: Prepare phase (leader election)
-        PREPARE, // Proposer sends prepare(round) to acceptors
+        // Phase 1: Prepare phase (leader election), once for all the slots
+        // from logIndex on
+        PREPARE, // Proposer sends prepare(round, logIndex) to acceptors
         PROMISE, // Acceptor promises not to accept proposals with lower round numbers
 
         // Phase 2: Accept phase (proposing values)
@@ -25,8 +28,32 @@ public class MultiPaxos_Message extends Message {
         // Decision
         DECIDE, // Broadcast decision to all replicas
 
-        // Response to client
-        DEQUEUE_RESPONSE // Send dequeue result to client
+        // Rejection of a PREPARE or PROPOSE: round is the higher round the
+        // acceptor promised, so that the proposer steps down
+        NACK,
+
+        // Checkpoint sent by the leader to a replica missing log entries it
+        // covers (they were truncated)
+        SNAPSHOT,
+
+        // Catch-up of a replica missing decided entries: it requests the
+        // range logIndex..lastIndex from a peer, which streams back the
+        // entries it decided there (with its checkpoint when the range was
+        // truncated)
+        CATCHUP_REQUEST,
+        CATCHUP_RESPONSE,
+
+        // Failure detector and leader lease: the leader sends HEARTBEAT
+        // (requestId: sequence number, logIndex: last log index it executed)
+        // every heartbeat interval; a replica answering with HEARTBEAT_ACK
+        // grants it a lease (it promises no other round until it expires)
+        HEARTBEAT,
+        HEARTBEAT_ACK,
+
+        // Response to client (requestId: the invocation number)
+        DEQUEUE_RESPONSE, // Send dequeue result to client
+        ENQUEUE_ACK, // Acknowledge an enqueue to the client
+        READ_RESPONSE // Result of a PEEK, SIZE or CONTAINS (requestId: the one of the request)
     }
 
     PaxosMessageType paxosType;
@@ -36,9 +63,23 @@ public class MultiPaxos_Message extends Message {
     int logIndex; // Index in the replicated log
     QueueOperation operation; // THE PAYLOAD: the queue operation (enqueue/dequeue)
     int senderId; // ID of sender replica
-    int acceptedRound; // For PROMISE: highest round this acceptor has accepted (or -1)
-    QueueOperation acceptedValue; // For PROMISE: value accepted in acceptedRound (or null)
+    // For PROMISE: the slots >= logIndex this acceptor has accepted a value
+    // in, with the round it was accepted in and the value
+    Map<Integer, Integer> acceptedRounds;
+    Map<Integer, QueueOperation> acceptedValues;
+    // For PROMISE (when the acceptor truncated slots >= logIndex) and
+    // SNAPSHOT: the checkpoint of the sender
+    MultiPaxos_Checkpoint checkpoint;
+    // For ACCEPT: the last log index executed by the acceptor
+    int executedIndex = -1;
+    // For CATCHUP_REQUEST: last log index of the range requested
+    int lastIndex = -1;
+    // For CATCHUP_RESPONSE: decided entries of the range, per log index
+    Map<Integer, QueueOperation> decidedValues;
     Integer dequeueResult; // For DEQUEUE_RESPONSE: the result of dequeue operation
+    // For READ_RESPONSE: the head (PEEK, null if empty), the size (SIZE), or
+    // 1 if the value is in the queue, 0 otherwise (CONTAINS)
+    Integer readResult;
 
     // Constructor for CLIENT_REQUEST
     // Client broadcasts this to all replicas
@@ -49,31 +90,29 @@ public class MultiPaxos_Message extends Message {
         this.round = -1;
         this.logIndex = -1;
         this.senderId = -1;
-        this.acceptedRound = -1;
     }
 
-    // Constructor for PREPARE
-    // Leader sends this to start a new round
+    // Constructor for PREPARE and NACK
+    // Leader sends PREPARE to start a new round
     public MultiPaxos_Message(PaxosMessageType paxosType, int round, int logIndex, int senderId) {
         super(MessageType.REPLICA_RD_ACK);
         this.paxosType = paxosType;
         this.round = round;
         this.logIndex = logIndex;
         this.senderId = senderId;
-        this.acceptedRound = -1;
     }
 
     // Constructor for PROMISE
     // Acceptor sends this in response to PREPARE
     public MultiPaxos_Message(int round, int logIndex, int senderId,
-            int acceptedRound, QueueOperation acceptedValue) {
+            Map<Integer, Integer> acceptedRounds, Map<Integer, QueueOperation> acceptedValues) {
         super(MessageType.REPLICA_RD_ACK);
         this.paxosType = PaxosMessageType.PROMISE;
         this.round = round;
         this.logIndex = logIndex;
         this.senderId = senderId;
-        this.acceptedRound = acceptedRound;
-        this.acceptedValue = acceptedValue;
+        this.acceptedRounds = acceptedRounds;
+        this.acceptedValues = acceptedValues;
     }
 
     // Constructor for PROPOSE, ACCEPT, DECIDE
@@ -86,7 +125,31 @@ public class MultiPaxos_Message extends Message {
         this.logIndex = logIndex;
         this.operation = operation;
         this.senderId = senderId;
-        this.acceptedRound = -1;
+    }
+
+    // Constructor for SNAPSHOT
+    // Leader sends its checkpoint to a lagging replica
+    public MultiPaxos_Message(int senderId, MultiPaxos_Checkpoint checkpoint) {
+        super(MessageType.REPLICA_WR_UPD);
+        this.paxosType = PaxosMessageType.SNAPSHOT;
+        this.round = -1;
+        this.logIndex = checkpoint.index;
+        this.senderId = senderId;
+        this.checkpoint = checkpoint;
+    }
+
+    // Constructor for CATCHUP_RESPONSE
+    // Peer sends decided entries (and its checkpoint when the range
+    // requested from logIndex on was truncated) to a lagging replica
+    public MultiPaxos_Message(int senderId, int logIndex, Map<Integer, QueueOperation> decidedValues,
+            MultiPaxos_Checkpoint checkpoint) {
+        super(MessageType.REPLICA_WR_UPD);
+        this.paxosType = PaxosMessageType.CATCHUP_RESPONSE;
+        this.round = -1;
+        this.logIndex = logIndex;
+        this.senderId = senderId;
+        this.decidedValues = decidedValues;
+        this.checkpoint = checkpoint;
     }
 
     // Constructor for DEQUEUE_RESPONSE
@@ -99,7 +162,33 @@ public class MultiPaxos_Message extends Message {
         this.round = -1;
         this.logIndex = -1;
         this.senderId = -1;
-        this.acceptedRound = -1;
+    }
+
+    // Constructor for DEQUEUE_RESPONSE and ENQUEUE_ACK answering "operation"
+    // Replica that decided the operation sends this back to the client
+    public static MultiPaxos_Message response(QueueOperation operation, Integer dequeueResult, int senderId) {
+        MultiPaxos_Message response = new MultiPaxos_Message(null, dequeueResult);
+        if (operation.getType() == QueueOperation.OperationType.ENQUEUE) {
+            response.type = MessageType.REPLICA_WR_ACK;
+            response.paxosType = PaxosMessageType.ENQUEUE_ACK;
+        }
+        response.operation = operation;
+        response.senderId = senderId;
+        response.requestId = operation.getInvocationNum();
+        return response;
+    }
+
+    // Constructor for READ_RESPONSE answering "operation", sent by the leader
+    // to the client under correlation id "requestId"
+    public static MultiPaxos_Message readResponse(QueueOperation operation, Integer readResult, long requestId,
+            int senderId) {
+        MultiPaxos_Message response = new MultiPaxos_Message(null, (Integer) null);
+        response.paxosType = PaxosMessageType.READ_RESPONSE;
+        response.operation = operation;
+        response.readResult = readResult;
+        response.senderId = senderId;
+        response.requestId = requestId;
+        return response;
     }
 
     @Override
@@ -111,8 +200,9 @@ public class MultiPaxos_Message extends Message {
                 return "PREPARE(round=" + round + ", logIndex=" + logIndex + ") from replica " + senderId;
             case PROMISE:
                 return "PROMISE(round=" + round + ", logIndex=" + logIndex +
-                        ", acceptedRound=" + acceptedRound +
-                        (acceptedValue != null ? ", acceptedValue=" + acceptedValue : ", no previous accept") +
+                        (acceptedValues.isEmpty() ? ", no previous accept" : ", accepted=" + acceptedValues +
+                                " in rounds " + acceptedRounds) +
+                        (checkpoint != null ? ", " + checkpoint : "") +
                         ") from replica " + senderId;
             case PROPOSE:
                 return "PROPOSE(round=" + round + ", logIndex=" + logIndex +
@@ -123,8 +213,26 @@ public class MultiPaxos_Message extends Message {
             case DECIDE:
                 return "DECIDE(round=" + round + ", logIndex=" + logIndex +
                         ", operation=" + operation + ") from replica " + senderId;
+            case NACK:
+                return "NACK(promised round=" + round + ", logIndex=" + logIndex + ") from replica " + senderId;
+            case SNAPSHOT:
+                return "SNAPSHOT(" + checkpoint + ") from replica " + senderId;
+            case CATCHUP_REQUEST:
+                return "CATCHUP_REQUEST(logIndex=" + logIndex + ".." + lastIndex + ") from replica " + senderId;
+            case CATCHUP_RESPONSE:
+                return "CATCHUP_RESPONSE(logIndex=" + logIndex + ", decided=" + decidedValues.keySet() +
+                        (checkpoint != null ? ", " + checkpoint : "") + ") from replica " + senderId;
+            case HEARTBEAT:
+                return "HEARTBEAT#" + requestId + "(round=" + round + ", logIndex=" + logIndex + ") from replica " +
+                        senderId;
+            case HEARTBEAT_ACK:
+                return "HEARTBEAT_ACK#" + requestId + "(round=" + round + ") from replica " + senderId;
             case DEQUEUE_RESPONSE:
                 return "DEQUEUE_RESPONSE: result=" + dequeueResult;
+            case ENQUEUE_ACK:
+                return "ENQUEUE_ACK: " + operation;
+            case READ_RESPONSE:
+                return "READ_RESPONSE: " + operation + " = " + readResult;
             default:
                 return super.toString();
         }
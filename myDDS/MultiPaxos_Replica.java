@@ -1,11 +1,51 @@
 package myDDS;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Multi-Paxos Replica implementation
  * Implements a distributed queue using Multi-Paxos consensus algorithm
+ *
+ * Stable leader: a replica runs Phase 1 (PREPARE/PROMISE) once, for all the
+ * log slots from its first unexecuted one on, and then proposes the next
+ * operations directly (PROPOSE/ACCEPT/DECIDE). It stays leader until a
+ * higher round preempts it (NACK, or a PREPARE/PROPOSE of a higher round).
+ * Rounds are unique per replica: replica i only uses the rounds r with
+ * r % N == i.
+ *
+ * Leader election: the leader sends a HEARTBEAT every dds.heartbeatMs (on
+ * the timer thread shared by the replicas); a replica that hears no leader
+ * for a random time between dds.electionTimeoutMs and twice that starts a
+ * new round. Answering a heartbeat grants the leader a lease of
+ * dds.leaseMs: until it expires, the replica does not promise the round
+ * of another replica, so the leader holding leases from a majority knows
+ * that no other replica can lead.
+ *
+ * Reads (PEEK, SIZE, CONTAINS) take no log entry: the leader serves them
+ * from its queue once it executed every entry decided when the read became
+ * ready (its read index), either under its lease or after a majority
+ * answered a heartbeat sent after that (ReadIndex).
+ *
+ * Every dds.checkpointInterval log entries, a replica checkpoints its
+ * queue and forgets the per-slot state of the entries executed so far; a
+ * replica missing some of these entries gets the checkpoint instead
+ * (in a PROMISE, or in a SNAPSHOT sent by the leader).
+ *
+ * A replica that misses decisions (a hole below the highest log index it
+ * knows decided, lasting dds.catchupDelayMs) requests the missing range
+ * from a peer (CATCHUP_REQUEST), which streams back the entries it decided
+ * there, or its checkpoint when it truncated them (CATCHUP_RESPONSE).
+ *
+ * With dds.dataDir set, the acceptor state (promises and accepts, and the
+ * checkpoint) is written to a MultiPaxos_AcceptorLog before the replies
+ * that depend on it are sent, and recovered when the replica starts.
  */
 public class MultiPaxos_Replica extends Thread {
     // Replica identity
@@ -13,76 +53,157 @@ public class MultiPaxos_Replica extends Thread {
     private final int totalReplicas;
     private final MultiPaxos_DDS dds;
 
-    // Multi-Paxos state - Per log index
-    private final Map<Integer, QueueOperation> log; // log index -> decided operation
-    private final Map<Integer, Integer> promisedRound; // log index -> highest promised round
-    private final Map<Integer, Integer> acceptedRound; // log index -> highest accepted round
-    private final Map<Integer, QueueOperation> acceptedValue; // log index -> accepted operation
+    // Multi-Paxos state
+    private int promisedRound; // highest round promised, for all log indexes
+    // per log index: accepted round and operation, decided operation, and
+    // (leader) proposal in flight with the replicas who accepted it
+    private final MultiPaxos_Log paxosLog;
+    // durable acceptor state (null: in memory only)
+    private MultiPaxos_AcceptorLog acceptorLog;
+    // PROMISE/ACCEPT replies held until the records they depend on are durable
+    private final List<Map.Entry<Integer, MultiPaxos_Message>> heldReplies;
+    private static final int MAX_HELD_REPLIES = 64;
 
     // Client requests tracking (OPTIONAL: support multiple invocations per client)
     private final Map<Integer, TreeMap<Integer, QueueOperation>> clientRequests; // client id -> (invNum -> operation)
     private final Map<Integer, Integer> clientNextInvocation; // client id -> next expected invocation number
 
     // Leader state
-    private int currentRound;
+    private int currentRound; // round this replica leads or tries to lead (0: none yet)
+    private int highestRoundSeen; // highest round seen in any message
+    private int knownLeader; // replica leading highestRoundSeen (-1: none yet)
     private int nextLogIndex;
     private boolean isLeader;
-    private final Random random;
-    private volatile boolean leaderElectionPending; // Track if delayed election is scheduled
+    private boolean isCandidate; // Phase 1 in progress
+
+    // Failure detector and leases (times from System.nanoTime())
+    private volatile boolean tick; // set every dds.heartbeatMs by the timer, handled by the replica thread
+    private ScheduledFuture<?> timer;
+    private long lastHeardNs; // last message of the leader (or start of this replica's round)
+    private long electionTimeoutNs; // randomized, drawn again at each election
+    private long heartbeatSeq; // leader: sequence number of the last HEARTBEAT
+    private long heartbeatSentNs; // leader: when it was sent
+    private long heartbeatAckMask; // leader: bitset of the replica ids who answered it
+    private long leaseExpiryNs; // leader: end of the lease granted by a majority (0: none)
+    private int leaseHolder; // replica this one granted a lease to (-1: none)
+    private long leaseGrantedUntilNs; // end of that lease
+    private long confirmedSeq; // leader: last heartbeat answered by a majority
+
+    // Reads waiting to be served by the leader (a replica that is not the
+    // leader keeps them for two election timeouts, in case it is elected)
+    private final List<PendingRead> pendingReads;
+    private int highestDecided; // highest log index known decided
+
+    private static class PendingRead {
+        final QueueOperation op;
+        final long requestId;
+        final long arrivedNs;
+        int readIndex = -1; // entries to execute before serving it (-1: not ready yet)
+        long confirmSeq; // without lease: heartbeat whose majority confirms the leadership
+
+        PendingRead(QueueOperation op, long requestId, long arrivedNs) {
+            this.op = op;
+            this.requestId = requestId;
+            this.arrivedNs = arrivedNs;
+        }
+    }
+
+    // Phase 1 of the current round: promises, and the values accepted in
+    // the slots >= prepareIndex reported by them (highest round wins)
+    private int prepareIndex;
+    private long promiseMask; // bitset of the replica ids who promised
+    private final TreeMap<Integer, Integer> highestAcceptedRound;
+    private final TreeMap<Integer, QueueOperation> highestAcceptedValue;
+    private int recoveredEnd; // slots below it are re-proposed (or filled with NOOP)
 
-    // Tracking promises and accepts for current proposal
-    private final Map<Integer, Set<Integer>> promiseSet; // log index -> set of replica ids who promised
-    private final Map<Integer, Set<Integer>> acceptSet; // log index -> set of replica ids who accepted
-    private final Map<Integer, QueueOperation> highestAcceptedValue; // log index -> highest accepted value from
-                                                                     // promises
-    private final Map<Integer, Integer> highestAcceptedRound; // log index -> highest accepted round from promises
+    // Phase 2 (proposals in flight are in paxosLog)
+    private final Set<QueueOperation> inFlight; // client operations in the proposals in flight
+    private long batchHeldSince; // time the leader started holding a partial batch (0: not holding)
 
     // Actual queue for execution (simulates the real queue)
     private final Queue<Integer> actualQueue;
 
     // Execution tracking
     private int lastExecutedIndex;
+    // latest checkpoint: the log entries up to its index are truncated
+    private MultiPaxos_Checkpoint checkpoint;
+    // leader: index of the last checkpoint sent to each replica
+    private final int[] snapshotSent;
+    // log indexes this replica decided: it answers their clients once executed
+    private final Set<Integer> toAnswer;
+
+    // Catch-up of the entries missing below nextLogIndex
+    private long gapSince; // time the hole was seen without execution progress (0: no hole)
+    private int gapExecutedIndex; // lastExecutedIndex at gapSince
+    private int catchupAttempts; // requests sent since the last progress (selects the peer)
+    private int catchupEnd; // last log index of the range requested (-1: none outstanding)
+    private static final int CATCHUP_CHUNKS = 4; // responses streamed per request
 
     public MultiPaxos_Replica(int id, MultiPaxos_DDS dds, int totalReplicas) {
         this.id = id;
         this.totalReplicas = totalReplicas;
         this.dds = dds;
 
-        this.log = new ConcurrentHashMap<>();
-        this.promisedRound = new ConcurrentHashMap<>();
-        this.acceptedRound = new ConcurrentHashMap<>();
-        this.acceptedValue = new ConcurrentHashMap<>();
+        this.promisedRound = 0;
+        this.paxosLog = new MultiPaxos_Log();
+        this.heldReplies = new ArrayList<>();
 
         this.clientRequests = new ConcurrentHashMap<>();
         this.clientNextInvocation = new ConcurrentHashMap<>();
 
         this.currentRound = 0;
+        this.highestRoundSeen = 0;
+        this.knownLeader = -1;
         this.nextLogIndex = 0;
         this.isLeader = false;
-        this.random = new Random(System.currentTimeMillis());
-        this.leaderElectionPending = false;
-
-        this.promiseSet = new ConcurrentHashMap<>();
-        this.acceptSet = new ConcurrentHashMap<>();
-        this.highestAcceptedValue = new ConcurrentHashMap<>();
-        this.highestAcceptedRound = new ConcurrentHashMap<>();
+        this.isCandidate = false;
+        this.tick = false;
+        this.leaseExpiryNs = 0;
+        this.leaseHolder = -1;
+        this.pendingReads = new ArrayList<>();
+        this.highestDecided = -1;
+
+        this.promiseMask = 0;
+        this.highestAcceptedRound = new TreeMap<>();
+        this.highestAcceptedValue = new TreeMap<>();
+        this.inFlight = new HashSet<>();
+        this.batchHeldSince = 0;
 
         this.actualQueue = new LinkedList<>();
         this.lastExecutedIndex = -1;
+        this.checkpoint = new MultiPaxos_Checkpoint(-1, actualQueue, clientNextInvocation);
+        this.snapshotSent = new int[totalReplicas];
+        Arrays.fill(snapshotSent, -1);
+        this.toAnswer = new HashSet<>();
+
+        this.gapSince = 0;
+        this.catchupEnd = -1;
 
         System.out.println("MultiPaxos Replica " + id + " initialized (total replicas: " + totalReplicas + ")");
     }
 
     @Override
     public void run() {
+        if (dds.dataDir != null) {
+            openAcceptorLog();
+        }
+        lastHeardNs = System.nanoTime();
+        electionTimeoutNs = randomElectionTimeout();
+        timer = dds.scheduler.scheduleAtFixedRate(() -> tick = true, dds.heartbeatMs, dds.heartbeatMs,
+                TimeUnit.MILLISECONDS);
+
         // Main loop: handle messages until STOP
         while (true) {
             if (!dds.isEmpty(id)) {
                 Message m = dds.receive(id);
-                System.out.println("Replica " + id + " receiving: " + m);
+                if (!isHeartbeat(m)) {
+                    System.out.println("Replica " + id + " receiving: " + m);
+                }
 
                 if (m.isStop()) {
                     System.out.println("Replica " + id + " stopping");
+                    timer.cancel(false);
+                    closeAcceptorLog();
                     break;
                 }
 
@@ -91,15 +212,140 @@ public class MultiPaxos_Replica extends Thread {
                 }
             }
 
-            // Small sleep to prevent busy waiting
+            // Group commit: one sync for the replies held while draining the
+            // channel
+            if (!heldReplies.isEmpty() && (dds.isEmpty(id) || heldReplies.size() >= MAX_HELD_REPLIES)) {
+                releaseHeldReplies();
+            }
+
+            if (tick) {
+                handleTick();
+            }
+
+            if (!pendingReads.isEmpty()) {
+                serveReads();
+            }
+
+            // Request the decided entries still missing below nextLogIndex
+            if (nextLogIndex > lastExecutedIndex + 1) {
+                checkGap();
+            } else {
+                gapSince = 0;
+            }
+
+            // Propose the batch held for more operations once its delay expired
+            if (batchHeldSince != 0) {
+                tryProposeNext();
+            }
+
+            if (!dds.isEmpty(id)) {
+                continue;
+            }
+            // Small sleep to prevent busy waiting (only when idle; short, as
+            // it adds to the latency of every client request)
             try {
-                Thread.sleep(10);
+                Thread.sleep(1);
             } catch (InterruptedException e) {
                 break;
             }
         }
     }
 
+    /**
+     * Open the acceptor log of this replica and restore the state it holds
+     */
+    private void openAcceptorLog() {
+        File file = new File(dds.dataDir, "replica-" + id + ".log");
+        try {
+            acceptorLog = new MultiPaxos_AcceptorLog(file, dds.fsyncPolicy);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Replica " + id + " cannot open " + file, e);
+        }
+        if (acceptorLog.checkpoint() != null) {
+            installCheckpoint(acceptorLog.checkpoint());
+        }
+        promisedRound = acceptorLog.promisedRound();
+        highestRoundSeen = promisedRound;
+        for (Map.Entry<Integer, QueueOperation> e : acceptorLog.acceptedValues().entrySet()) {
+            if (e.getKey() > checkpoint.index) {
+                paxosLog.accept(e.getKey(), acceptorLog.acceptedRounds().get(e.getKey()), e.getValue());
+            }
+        }
+        System.out.println("Replica " + id + " recovered from " + file + ": promised round " + promisedRound +
+                ", " + acceptorLog.acceptedValues().size() + " accepted values, " + checkpoint +
+                " (fsync policy " + dds.fsyncPolicy + ")");
+    }
+
+    private void persistPromise(int round) {
+        if (acceptorLog == null) {
+            return;
+        }
+        try {
+            acceptorLog.appendPromise(round);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Replica " + id + " cannot log promise", e);
+        }
+    }
+
+    private void persistAccept(int logIdx, int round, QueueOperation op) {
+        if (acceptorLog == null) {
+            return;
+        }
+        try {
+            acceptorLog.appendAccept(logIdx, round, op);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Replica " + id + " cannot log accept", e);
+        }
+    }
+
+    /**
+     * Make the records logged so far durable
+     */
+    private void syncAcceptorLog() {
+        if (acceptorLog == null) {
+            return;
+        }
+        try {
+            acceptorLog.sync();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Replica " + id + " cannot sync its acceptor log", e);
+        }
+    }
+
+    private void closeAcceptorLog() {
+        releaseHeldReplies();
+        if (acceptorLog != null) {
+            try {
+                acceptorLog.close();
+            } catch (IOException e) {
+                System.out.println("Replica " + id + " failed to close its acceptor log: " + e);
+            }
+        }
+    }
+
+    /**
+     * Send a PROMISE or ACCEPT once the record it depends on is durable
+     * (immediately without acceptor log, or with one fsync per record)
+     */
+    private void sendWhenDurable(int replicaId, MultiPaxos_Message msg) {
+        if (acceptorLog == null || acceptorLog.policy() == MultiPaxos_AcceptorLog.FsyncPolicy.ALWAYS) {
+            sendToReplica(replicaId, msg);
+        } else {
+            heldReplies.add(new AbstractMap.SimpleEntry<>(replicaId, msg));
+        }
+    }
+
+    private void releaseHeldReplies() {
+        if (heldReplies.isEmpty()) {
+            return;
+        }
+        syncAcceptorLog();
+        for (Map.Entry<Integer, MultiPaxos_Message> reply : heldReplies) {
+            sendToReplica(reply.getKey(), reply.getValue());
+        }
+        heldReplies.clear();
+    }
+
     private void handleMessage(MultiPaxos_Message msg) {
         switch (msg.paxosType) {
             case CLIENT_REQUEST:
@@ -120,15 +366,39 @@ public class MultiPaxos_Replica extends Thread {
             case DECIDE:
                 handleDecide(msg);
                 break;
+            case NACK:
+                handleNack(msg);
+                break;
+            case SNAPSHOT:
+                System.out.println("Replica " + id + " received " + msg);
+                installCheckpoint(msg.checkpoint);
+                break;
+            case CATCHUP_REQUEST:
+                handleCatchupRequest(msg);
+                break;
+            case CATCHUP_RESPONSE:
+                handleCatchupResponse(msg);
+                break;
+            case HEARTBEAT:
+                handleHeartbeat(msg);
+                break;
+            case HEARTBEAT_ACK:
+                handleHeartbeatAck(msg);
+                break;
         }
     }
 
     /**
      * Handle client request (CLIENT_REQUEST message)
-     * Store the request and try to become leader if applicable
+     * Store the request; the leader proposes it, and without a known leader
+     * the designated replica starts an election
      */
     private void handleClientRequest(MultiPaxos_Message msg) {
         QueueOperation op = msg.operation;
+        if (op.isReadOnly()) {
+            pendingReads.add(new PendingRead(op, msg.requestId, System.nanoTime()));
+            return;
+        }
         int clientId = op.getClientId();
         int invNum = op.getInvocationNum();
 
@@ -140,85 +410,251 @@ public class MultiPaxos_Replica extends Thread {
 
         System.out.println("Replica " + id + " stored client request: " + op);
 
-        // If we're already the leader, propose immediately
+        // If we're the leader, propose immediately (otherwise the leader,
+        // elected by the failure detector, has it too)
         if (isLeader) {
             tryProposeNext();
-            return;
         }
+    }
 
-        // If we should become leader for next round, do it immediately
-        if (shouldBecomeLeader()) {
-            synchronized (this) {
-                leaderElectionPending = false; // Cancel any pending election
-            }
+    private static boolean isHeartbeat(Message m) {
+        return m instanceof MultiPaxos_Message
+                && (((MultiPaxos_Message) m).paxosType == MultiPaxos_Message.PaxosMessageType.HEARTBEAT
+                        || ((MultiPaxos_Message) m).paxosType == MultiPaxos_Message.PaxosMessageType.HEARTBEAT_ACK);
+    }
+
+    private long randomElectionTimeout() {
+        long timeoutNs = TimeUnit.MILLISECONDS.toNanos(dds.electionTimeoutMs);
+        return timeoutNs + ThreadLocalRandom.current().nextLong(timeoutNs);
+    }
+
+    /**
+     * Timer tick (replica thread): the leader heartbeats; another replica
+     * that did not hear the leader for its election timeout (or a
+     * candidate that did not get a majority in that time) starts a new
+     * round, with a new random timeout
+     */
+    private void handleTick() {
+        tick = false;
+        long now = System.nanoTime();
+        if (isLeader) {
+            sendHeartbeat(now);
+        } else if (now - lastHeardNs > electionTimeoutNs) {
+            System.out.println("Replica " + id + " heard no leader for " +
+                    TimeUnit.NANOSECONDS.toMillis(now - lastHeardNs) + " ms, starting an election");
+            electionTimeoutNs = randomElectionTimeout();
             startNewRound();
+        }
+    }
+
+    private void sendHeartbeat(long now) {
+        heartbeatSeq++;
+        heartbeatSentNs = now;
+        heartbeatAckMask = 1L << id;
+        MultiPaxos_Message heartbeat = new MultiPaxos_Message(
+                MultiPaxos_Message.PaxosMessageType.HEARTBEAT, currentRound, lastExecutedIndex, id);
+        heartbeat.requestId = heartbeatSeq;
+        broadcastToReplicas(heartbeat);
+        if (totalReplicas == 1) {
+            confirmedSeq = heartbeatSeq;
+            renewLease();
+        }
+    }
+
+    /**
+     * Handle HEARTBEAT: the leader is alive; grant it a lease unless this
+     * replica promised a higher round (the leader is then outdated)
+     */
+    private void handleHeartbeat(MultiPaxos_Message msg) {
+        observeRound(msg.round);
+        if (msg.round < promisedRound || msg.round < highestRoundSeen) {
+            sendNack(msg.senderId, msg.logIndex);
             return;
         }
+        long now = System.nanoTime();
+        lastHeardNs = now;
+        if (dds.leaseMs > 0) {
+            leaseHolder = msg.senderId;
+            leaseGrantedUntilNs = now + TimeUnit.MILLISECONDS.toNanos(dds.leaseMs);
+        }
+        // Decisions up to the last index the leader executed exist: a hole
+        // at the end of the log is caught up too
+        if (msg.logIndex >= nextLogIndex) {
+            nextLogIndex = msg.logIndex + 1;
+        }
+        MultiPaxos_Message ack = new MultiPaxos_Message(
+                MultiPaxos_Message.PaxosMessageType.HEARTBEAT_ACK, msg.round, msg.logIndex, id);
+        ack.requestId = msg.requestId;
+        sendToReplica(msg.senderId, ack);
+    }
 
-        // CRITICAL FIX: Use timeout to ensure SOME replica becomes leader
-        // ONLY replica 0 schedules delayed election to avoid multiple concurrent
-        // attempts
-        if (id == 0) {
-            synchronized (this) {
-                if (!leaderElectionPending) {
-                    leaderElectionPending = true;
-                    // Schedule delayed leader election
-                    new Thread(() -> {
-                        try {
-                            // Wait 100ms for designated leader to respond
-                            Thread.sleep(100);
-
-                            synchronized (MultiPaxos_Replica.this) {
-                                // Only execute if still needed
-                                if (!isLeader && !clientRequests.isEmpty() && leaderElectionPending) {
-                                    System.out.println(
-                                            "Replica " + id + " triggering timeout-based leader election");
-                                    leaderElectionPending = false;
-                                    startNewRound();
-                                } else {
-                                    leaderElectionPending = false;
-                                }
-                            }
-                        } catch (InterruptedException e) {
-                            synchronized (MultiPaxos_Replica.this) {
-                                leaderElectionPending = false;
-                            }
-                        }
-                    }).start();
+    /**
+     * Handle HEARTBEAT_ACK: a majority answering the last heartbeat renews
+     * the lease of the leader
+     */
+    private void handleHeartbeatAck(MultiPaxos_Message msg) {
+        if (!isLeader || msg.round != currentRound || msg.requestId != heartbeatSeq) {
+            return;
+        }
+        heartbeatAckMask |= 1L << msg.senderId;
+        if (Long.bitCount(heartbeatAckMask) > totalReplicas / 2) {
+            confirmedSeq = heartbeatSeq;
+            renewLease();
+        }
+    }
+
+    /**
+     * The replicas granted their lease after the last heartbeat was sent:
+     * the lease of the leader runs from the sending time
+     */
+    private void renewLease() {
+        if (dds.leaseMs > 0) {
+            leaseExpiryNs = heartbeatSentNs + TimeUnit.MILLISECONDS.toNanos(dds.leaseMs - dds.leaseDriftMs);
+        }
+    }
+
+    /**
+     * Serve the reads that are ready (leader), or drop the ones kept too
+     * long (other replicas)
+     * A read is ready once the writes its client submitted before it are
+     * decided; its read index is then the highest log index decided (or
+     * recovered by Phase 1). It is served once that index is executed,
+     * under the lease, or else once a heartbeat sent after it was ready is
+     * answered by a majority (one heartbeat for all the reads waiting).
+     */
+    private void serveReads() {
+        long now = System.nanoTime();
+        boolean confirm = false;
+        Iterator<PendingRead> it = pendingReads.iterator();
+        while (it.hasNext()) {
+            PendingRead read = it.next();
+            if (!isLeader) {
+                if (now - read.arrivedNs > 2 * TimeUnit.MILLISECONDS.toNanos(dds.electionTimeoutMs)) {
+                    it.remove();
                 }
+                continue;
+            }
+            if (read.readIndex < 0) {
+                if (clientNextInvocation.getOrDefault(read.op.getClientId(), 0) < read.op.getInvocationNum()) {
+                    continue;
+                }
+                read.readIndex = Math.max(highestDecided, recoveredEnd - 1);
+                read.confirmSeq = heartbeatSeq + 1;
+            }
+            if (lastExecutedIndex < read.readIndex) {
+                continue;
             }
+            if (!hasLease() && confirmedSeq < read.confirmSeq) {
+                confirm |= heartbeatSeq < read.confirmSeq;
+                continue;
+            }
+            it.remove();
+            respondToRead(read);
+        }
+        if (confirm) {
+            sendHeartbeat(now);
+        }
+    }
+
+    private void respondToRead(PendingRead read) {
+        Integer result;
+        switch (read.op.getType()) {
+            case PEEK:
+                result = actualQueue.peek();
+                break;
+            case SIZE:
+                result = actualQueue.size();
+                break;
+            default:
+                result = actualQueue.contains(read.op.getValue()) ? 1 : 0;
         }
+        MultiPaxos_Message response = MultiPaxos_Message.readResponse(read.op, result, read.requestId, id);
+        System.out.println("Replica " + id + " sending " + response + " to client " + read.op.getClientId() +
+                (hasLease() ? " (lease)" : " (leadership confirmed)"));
+        dds.respond(read.op.getClientId(), response);
     }
 
     /**
-     * Check if this replica should become leader based on current round
-     * Leader of round r is replica with id = r mod N
+     * Whether this replica leads with a lease from a majority: no other
+     * replica can be leading meanwhile
      */
-    private boolean shouldBecomeLeader() {
-        return ((currentRound + 1) % totalReplicas) == id;
+    boolean hasLease() {
+        return isLeader && leaseExpiryNs != 0 && System.nanoTime() < leaseExpiryNs;
     }
 
     /**
-     * Start a new round as leader
+     * Smallest round of this replica higher than any round seen
+     */
+    private int nextRound() {
+        int round = highestRoundSeen + 1;
+        while (round % totalReplicas != id) {
+            round++;
+        }
+        return round;
+    }
+
+    /**
+     * A message of "round" was seen: a leader of a lower round steps down
+     */
+    private void observeRound(int round) {
+        if (round > highestRoundSeen) {
+            highestRoundSeen = round;
+            knownLeader = round % totalReplicas;
+        }
+        if ((isLeader || isCandidate) && round > currentRound) {
+            stepDown(round);
+        }
+    }
+
+    private void stepDown(int round) {
+        System.out.println("Replica " + id + " stepping down as leader of round " + currentRound +
+                " (preempted by round " + round + ")");
+        isLeader = false;
+        isCandidate = false;
+        leaseExpiryNs = 0;
+        for (PendingRead read : pendingReads) {
+            read.readIndex = -1;
+        }
+        paxosLog.clearProposals();
+        inFlight.clear();
+        batchHeldSince = 0;
+    }
+
+    /**
+     * Start a new round as leader: Phase 1 for every slot from the first
+     * one not executed yet
      */
     private void startNewRound() {
-        currentRound++;
-        int logIdx = nextLogIndex;
+        currentRound = nextRound();
+        observeRound(currentRound);
+        knownLeader = id;
+        isCandidate = true;
+        isLeader = false;
+        prepareIndex = lastExecutedIndex + 1;
+        lastHeardNs = System.nanoTime(); // a new round if no majority within the election timeout
 
         System.out.println("Replica " + id + " starting round " + currentRound +
-                " as leader for logIndex " + logIdx);
+                " as leader for logIndex >= " + prepareIndex);
+
+        // The leader promises to itself, with its own accepted values (durably
+        // before using the round)
+        promisedRound = currentRound;
+        persistPromise(currentRound);
+        syncAcceptorLog();
+        highestAcceptedRound.clear();
+        highestAcceptedValue.clear();
+        promiseMask = 1L << id;
+        mergeAccepted(paxosLog.acceptedRoundsFrom(prepareIndex), paxosLog.acceptedValuesFrom(prepareIndex));
 
         // Send PREPARE to all replicas
         MultiPaxos_Message prepare = new MultiPaxos_Message(
-                MultiPaxos_Message.PaxosMessageType.PREPARE, currentRound, logIdx, id);
-
-        // Initialize promise tracking
-        promiseSet.put(logIdx, new HashSet<>());
-        promiseSet.get(logIdx).add(id); // Leader promises to itself
-        highestAcceptedRound.put(logIdx, -1);
+                MultiPaxos_Message.PaxosMessageType.PREPARE, currentRound, prepareIndex, id);
 
         // Broadcast to all replicas (via Bag channel)
         broadcastToReplicas(prepare);
+        if (Long.bitCount(promiseMask) > totalReplicas / 2) {
+            becomeLeader();
+        }
     }
 
     /**
@@ -231,25 +667,36 @@ public class MultiPaxos_Replica extends Thread {
         System.out.println("Replica " + id + " received PREPARE(round=" + round +
                 ", logIndex=" + logIdx + ") from replica " + msg.senderId);
 
-        // Check if we can promise this round
-        int currentPromised = promisedRound.getOrDefault(logIdx, -1);
-        if (round > currentPromised) {
-            promisedRound.put(logIdx, round);
-
-            // Send PROMISE with any previously accepted value
-            int prevAcceptedRound = acceptedRound.getOrDefault(logIdx, -1);
-            QueueOperation prevAcceptedValue = acceptedValue.get(logIdx);
+        // A replica that granted a lease to another leader does not promise
+        // until it expires (the candidate tries again after its timeout)
+        if (leaseHolder >= 0 && leaseHolder != msg.senderId && System.nanoTime() < leaseGrantedUntilNs) {
+            System.out.println("Replica " + id + " ignoring PREPARE (lease granted to replica " + leaseHolder + ")");
+            return;
+        }
 
+        // Check if we can promise this round
+        if (round > promisedRound) {
+            promisedRound = round;
+            persistPromise(round);
+            observeRound(round);
+            lastHeardNs = System.nanoTime(); // let the candidate complete its round
+
+            // Send PROMISE with the values accepted from logIdx on, and the
+            // checkpoint if it covers some of them
             MultiPaxos_Message promise = new MultiPaxos_Message(
-                    round, logIdx, id, prevAcceptedRound, prevAcceptedValue);
+                    round, logIdx, id, paxosLog.acceptedRoundsFrom(logIdx), paxosLog.acceptedValuesFrom(logIdx));
+            if (checkpoint.index >= logIdx) {
+                promise.checkpoint = checkpoint;
+            }
 
-            sendToReplica(msg.senderId, promise);
+            sendWhenDurable(msg.senderId, promise);
 
             System.out.println("Replica " + id + " sent PROMISE for round " + round +
-                    " (previously accepted round: " + prevAcceptedRound + ")");
+                    " (" + promise.acceptedValues.size() + " accepted values from logIndex " + logIdx + ")");
         } else {
             System.out.println("Replica " + id + " rejected PREPARE (already promised round " +
-                    currentPromised + ")");
+                    promisedRound + ")");
+            sendNack(msg.senderId, logIdx);
         }
     }
 
@@ -257,10 +704,9 @@ public class MultiPaxos_Replica extends Thread {
      * Handle PROMISE message from an acceptor
      */
     private void handlePromise(MultiPaxos_Message msg) {
-        int logIdx = msg.logIndex;
         int round = msg.round;
 
-        if (round != currentRound) {
+        if (round != currentRound || !isCandidate) {
             System.out.println("Replica " + id + " ignoring outdated PROMISE (round " +
                     round + ", current round " + currentRound + ")");
             return;
@@ -269,102 +715,163 @@ public class MultiPaxos_Replica extends Thread {
         System.out.println("Replica " + id + " received PROMISE from replica " + msg.senderId +
                 " for round " + round);
 
-        // Track promise
-        if (!promiseSet.containsKey(logIdx)) {
-            promiseSet.put(logIdx, new HashSet<>());
+        // Track promise and the highest accepted values
+        promiseMask |= 1L << msg.senderId;
+        if (msg.checkpoint != null) {
+            installCheckpoint(msg.checkpoint);
         }
-        promiseSet.get(logIdx).add(msg.senderId);
+        mergeAccepted(msg.acceptedRounds, msg.acceptedValues);
 
-        // Track highest accepted value from promises
-        if (msg.acceptedRound > highestAcceptedRound.getOrDefault(logIdx, -1)) {
-            highestAcceptedRound.put(logIdx, msg.acceptedRound);
-            highestAcceptedValue.put(logIdx, msg.acceptedValue);
-            System.out.println("Replica " + id + " updated highest accepted value: " + msg.acceptedValue);
+        // Check if we have majority (quorum)
+        if (Long.bitCount(promiseMask) > totalReplicas / 2) {
+            becomeLeader();
         }
+    }
 
-        // Check if we have majority (quorum)
-        if (promiseSet.get(logIdx).size() > totalReplicas / 2) {
-            isLeader = true;
-            System.out.println("Replica " + id + " became leader with " +
-                    promiseSet.get(logIdx).size() + " promises (majority reached)");
-            tryProposeNext();
+    private void mergeAccepted(Map<Integer, Integer> rounds, Map<Integer, QueueOperation> values) {
+        for (Map.Entry<Integer, QueueOperation> e : values.entrySet()) {
+            int logIdx = e.getKey();
+            int round = rounds.get(logIdx);
+            if (logIdx > checkpoint.index && round > highestAcceptedRound.getOrDefault(logIdx, -1)) {
+                highestAcceptedRound.put(logIdx, round);
+                highestAcceptedValue.put(logIdx, e.getValue());
+            }
         }
     }
 
     /**
-     * Try to propose the next operation
+     * Phase 1 succeeded: re-propose the values accepted in previous rounds,
+     * then the pending client requests
      */
-    private void tryProposeNext() {
-        if (!isLeader)
-            return;
-
-        int logIdx = nextLogIndex;
-
-        // Check if already decided at this index
-        if (log.containsKey(logIdx)) {
-            return;
-        }
+    private void becomeLeader() {
+        isCandidate = false;
+        isLeader = true;
+        nextLogIndex = Math.max(prepareIndex, checkpoint.index + 1);
+        recoveredEnd = highestAcceptedValue.isEmpty() ? nextLogIndex : highestAcceptedValue.lastKey() + 1;
+        System.out.println("Replica " + id + " became leader of round " + currentRound + " with " +
+                Long.bitCount(promiseMask) + " promises (majority reached), " + highestAcceptedValue.size() +
+                " accepted values to re-propose");
+        // Assert the leadership (and obtain the first lease) at once
+        sendHeartbeat(System.nanoTime());
+        tryProposeNext();
+    }
 
-        // Choose operation to propose
-        QueueOperation opToPropose = null;
+    /**
+     * Try to propose the next operations: the leader keeps up to
+     * dds.window proposals in flight, in consecutive log indexes
+     * Each proposal is a batch of up to dds.maxBatch pending operations.
+     * While proposals are in flight, a partial batch is held for at most
+     * dds.batchDelayMs so that it grows with the load; an idle leader
+     * proposes at once.
+     */
+    private void tryProposeNext() {
+        while (isLeader && paxosLog.proposedCount() < dds.window) {
+            // Skip the indexes already decided or in flight
+            while (paxosLog.decided(nextLogIndex) != null || paxosLog.proposed(nextLogIndex) != null) {
+                nextLogIndex++;
+            }
+            int logIdx = nextLogIndex;
+
+            // Choose operation to propose
+            QueueOperation opToPropose = null;
+
+            // If there was a previously accepted value, MUST propose it
+            if (highestAcceptedValue.containsKey(logIdx)) {
+                opToPropose = highestAcceptedValue.get(logIdx);
+                System.out.println("Replica " + id + " proposing previously accepted value: " + opToPropose);
+            } else if (logIdx < recoveredEnd) {
+                // Nothing chosen there: fill the slot
+                opToPropose = QueueOperation.noop();
+            } else {
+                // Choose pending client requests
+                List<QueueOperation> ready = choosePendingOperations(dds.maxBatch);
+                if (ready.isEmpty()) {
+                    batchHeldSince = 0;
+                    return;
+                }
+                if (ready.size() < dds.maxBatch && paxosLog.proposedCount() > 0) {
+                    long now = System.currentTimeMillis();
+                    if (batchHeldSince == 0) {
+                        batchHeldSince = now;
+                    }
+                    if (now - batchHeldSince < dds.batchDelayMs) {
+                        return;
+                    }
+                }
+                batchHeldSince = 0;
+                opToPropose = QueueOperation.batch(ready);
+            }
 
-        // If there was a previously accepted value, MUST propose it
-        if (highestAcceptedValue.containsKey(logIdx) && highestAcceptedValue.get(logIdx) != null) {
-            opToPropose = highestAcceptedValue.get(logIdx);
-            System.out.println("Replica " + id + " proposing previously accepted value: " + opToPropose);
-        } else {
-            // Choose a pending client request
-            opToPropose = choosePendingOperation();
+            if (opToPropose == null) {
+                return;
+            }
+            propose(logIdx, opToPropose);
         }
+    }
 
-        if (opToPropose != null) {
-            // Send PROPOSE
-            MultiPaxos_Message propose = new MultiPaxos_Message(
-                    MultiPaxos_Message.PaxosMessageType.PROPOSE,
-                    currentRound, logIdx, opToPropose, id);
-
-            // Initialize accept tracking
-            acceptSet.put(logIdx, new HashSet<>());
-            acceptSet.get(logIdx).add(id); // Leader accepts its own proposal
-
-            broadcastToReplicas(propose);
-            System.out.println("Replica " + id + " proposed " + opToPropose +
-                    " for logIndex " + logIdx);
+    /**
+     * Phase 2 for one slot: the leader accepts its own proposal and sends
+     * it to the other replicas
+     */
+    private void propose(int logIdx, QueueOperation op) {
+        MultiPaxos_Message propose = new MultiPaxos_Message(
+                MultiPaxos_Message.PaxosMessageType.PROPOSE,
+                currentRound, logIdx, op, id);
+
+        // Leader accepts its own proposal (durable before it decides)
+        paxosLog.propose(logIdx, op, id);
+        paxosLog.accept(logIdx, currentRound, op);
+        persistAccept(logIdx, currentRound, op);
+        inFlight.addAll(op.operations());
+
+        broadcastToReplicas(propose);
+        System.out.println("Replica " + id + " proposed " + op + " for logIndex " + logIdx);
+        if (totalReplicas == 1) {
+            decide(logIdx);
         }
     }
 
     /**
-     * Choose a pending operation to propose
+     * Choose up to "max" pending operations to propose, taking the clients
+     * in turn
      * OPTIONAL: Respects invocation order - only proposes invocation N if N-1 was
-     * decided
+     * decided, is in flight (in a lower log index) or comes before it in the
+     * batch
      */
-    private QueueOperation choosePendingOperation() {
-        // Iterate through all clients
+    private List<QueueOperation> choosePendingOperations(int max) {
+        // Operations each client can have proposed now, in invocation order
+        List<Iterator<QueueOperation>> chains = new ArrayList<>();
         for (Map.Entry<Integer, TreeMap<Integer, QueueOperation>> entry : clientRequests.entrySet()) {
             int clientId = entry.getKey();
             TreeMap<Integer, QueueOperation> invocations = entry.getValue();
 
-            if (invocations.isEmpty()) {
-                continue;
-            }
-
-            // Get the next expected invocation number for this client
+            // Skip the invocations decided or in flight
             int nextExpected = clientNextInvocation.getOrDefault(clientId, 0);
+            while (invocations.containsKey(nextExpected) && inFlight.contains(invocations.get(nextExpected))) {
+                nextExpected++;
+            }
 
-            // Check if this invocation is available
-            if (invocations.containsKey(nextExpected)) {
-                QueueOperation op = invocations.get(nextExpected);
-                System.out.println("Replica " + id + " chose pending operation: " + op +
-                        " (next expected inv for client " + clientId + " = " + nextExpected + ")");
-                return op;
-            } else {
-                System.out.println("Replica " + id + " waiting for invocation " + nextExpected +
-                        " from client " + clientId +
-                        " (have: " + invocations.keySet() + ")");
+            List<QueueOperation> chain = new ArrayList<>();
+            while (invocations.containsKey(nextExpected)) {
+                chain.add(invocations.get(nextExpected++));
+            }
+            if (!chain.isEmpty()) {
+                chains.add(chain.iterator());
             }
         }
 
-        return null;
+        List<QueueOperation> ops = new ArrayList<>();
+        while (ops.size() < max && !chains.isEmpty()) {
+            Iterator<Iterator<QueueOperation>> it = chains.iterator();
+            while (it.hasNext() && ops.size() < max) {
+                Iterator<QueueOperation> chain = it.next();
+                ops.add(chain.next());
+                if (!chain.hasNext()) {
+                    it.remove();
+                }
+            }
+        }
+        return ops;
     }
 
     /**
@@ -379,24 +886,46 @@ public class MultiPaxos_Replica extends Thread {
                 ") from replica " + msg.senderId);
 
         // Check if we can accept
-        int currentPromised = promisedRound.getOrDefault(logIdx, -1);
-        if (round >= currentPromised) {
-            acceptedRound.put(logIdx, round);
-            acceptedValue.put(logIdx, msg.operation);
+        if (round >= promisedRound) {
+            promisedRound = round;
+            observeRound(round);
+            lastHeardNs = System.nanoTime();
+            // (an entry already executed and truncated is decided: only its
+            // acceptance matters to the leader)
+            if (logIdx > checkpoint.index) {
+                paxosLog.accept(logIdx, round, msg.operation);
+                persistAccept(logIdx, round, msg.operation);
+            }
 
             // Send ACCEPT
             MultiPaxos_Message accept = new MultiPaxos_Message(
                     MultiPaxos_Message.PaxosMessageType.ACCEPT,
                     round, logIdx, msg.operation, id);
+            accept.executedIndex = lastExecutedIndex;
 
-            sendToReplica(msg.senderId, accept);
+            sendWhenDurable(msg.senderId, accept);
             System.out.println("Replica " + id + " accepted proposal for round " + round);
         } else {
             System.out.println("Replica " + id + " rejected PROPOSE (promised higher round " +
-                    currentPromised + ")");
+                    promisedRound + ")");
+            sendNack(msg.senderId, logIdx);
         }
     }
 
+    private void sendNack(int replicaId, int logIdx) {
+        sendToReplica(replicaId, new MultiPaxos_Message(
+                MultiPaxos_Message.PaxosMessageType.NACK, promisedRound, logIdx, id));
+    }
+
+    /**
+     * Handle NACK message: an acceptor promised a higher round
+     */
+    private void handleNack(MultiPaxos_Message msg) {
+        System.out.println("Replica " + id + " received NACK from replica " + msg.senderId +
+                " (promised round " + msg.round + ")");
+        observeRound(msg.round);
+    }
+
     /**
      * Handle ACCEPT message from acceptor
      */
@@ -404,59 +933,55 @@ public class MultiPaxos_Replica extends Thread {
         int logIdx = msg.logIndex;
         int round = msg.round;
 
-        if (round != currentRound || !isLeader) {
-            System.out.println("Replica " + id + " ignoring ACCEPT (not current leader or wrong round)");
-            return;
+        if (isLeader && msg.executedIndex + dds.checkpointInterval <= checkpoint.index
+                && snapshotSent[msg.senderId] < checkpoint.index) {
+            // The acceptor lags by more than a checkpoint interval: it may
+            // miss entries this replica truncated
+            snapshotSent[msg.senderId] = checkpoint.index;
+            System.out.println("Replica " + id + " sending " + checkpoint + " to replica " + msg.senderId +
+                    " (executed up to logIndex " + msg.executedIndex + ")");
+            sendToReplica(msg.senderId, new MultiPaxos_Message(id, checkpoint));
         }
 
-        System.out.println("Replica " + id + " received ACCEPT from replica " + msg.senderId);
-
         // Track accept
-        if (!acceptSet.containsKey(logIdx)) {
-            acceptSet.put(logIdx, new HashSet<>());
+        int accepted = round == currentRound && isLeader ? paxosLog.addAccept(logIdx, msg.senderId) : 0;
+        if (accepted == 0) {
+            System.out.println("Replica " + id + " ignoring ACCEPT (not current leader, wrong round or decided)");
+            return;
         }
-        acceptSet.get(logIdx).add(msg.senderId);
+
+        System.out.println("Replica " + id + " received ACCEPT from replica " + msg.senderId);
 
         // Check if we have majority (decision reached)
-        if (acceptSet.get(logIdx).size() > totalReplicas / 2) {
+        if (accepted > totalReplicas / 2) {
             System.out.println("Replica " + id + " reached majority accepts (" +
-                    acceptSet.get(logIdx).size() + "), broadcasting DECIDE");
+                    accepted + "), broadcasting DECIDE");
+            decide(logIdx);
+        }
+    }
 
-            // Decision reached! Broadcast DECIDE
-            MultiPaxos_Message decide = new MultiPaxos_Message(
-                    MultiPaxos_Message.PaxosMessageType.DECIDE,
-                    round, logIdx, msg.operation, id);
+    /**
+     * A majority accepted the proposal for "logIdx": broadcast DECIDE, then
+     * propose in the next slot, still in the current round
+     */
+    private void decide(int logIdx) {
+        QueueOperation op = paxosLog.removeProposal(logIdx);
+        inFlight.removeAll(op.operations());
+        // The leader's own accept counted in the majority
+        syncAcceptorLog();
 
-            broadcastToReplicas(decide);
+        // Decision reached! Broadcast DECIDE
+        MultiPaxos_Message decide = new MultiPaxos_Message(
+                MultiPaxos_Message.PaxosMessageType.DECIDE,
+                currentRound, logIdx, op, id);
 
-            // Also handle decision locally
-            handleDecide(decide);
-            // Note: handleDecide() already updated nextLogIndex = logIdx + 1
+        broadcastToReplicas(decide);
 
-            // Decide whether to continue as leader
-            // Use random.nextInt(2) which returns 0 or 1
-            // Continue if result is 1 (not 0)
-            if (random.nextInt(2) == 0) {
-                // Stop being leader
-                isLeader = false;
-                System.out.println("Replica " + id + " stepping down as leader (random stop)");
-            } else {
-                // Continue as leader for next log index
-                // nextLogIndex is already incremented by handleDecide(), no need to ++ again
-                System.out.println("Replica " + id + " continuing as leader for next index " + nextLogIndex);
-
-                // Clean up tracking structures for current index
-                promiseSet.remove(logIdx);
-                acceptSet.remove(logIdx);
-                highestAcceptedValue.remove(logIdx);
-                highestAcceptedRound.remove(logIdx);
-
-                // Start new round for next index if there are pending requests
-                if (!clientRequests.isEmpty()) {
-                    startNewRound();
-                }
-            }
-        }
+        // Also handle decision locally
+        handleDecide(decide);
+
+        // Remain leader for the next index (no new Phase 1)
+        tryProposeNext();
     }
 
     /**
@@ -467,31 +992,169 @@ public class MultiPaxos_Replica extends Thread {
         QueueOperation op = msg.operation;
 
         System.out.println("Replica " + id + " received DECIDE for logIndex " + logIdx + ": " + op);
+        if (msg.senderId != id) {
+            observeRound(msg.round);
+            if (msg.round == highestRoundSeen) {
+                lastHeardNs = System.nanoTime();
+            }
+        }
+        // Exactly one replica (the leader that gathered the accepts) answers
+        // the clients
+        learn(logIdx, msg.round, op, msg.senderId == id);
 
-        // Store in log
-        log.put(logIdx, op);
+        // Try to execute all consecutive operations
+        executeLog();
+    }
 
-        // Remove from pending requests (OPTIONAL: handle multiple invocations)
-        int clientId = op.getClientId();
-        int invNum = op.getInvocationNum();
-        if (clientRequests.containsKey(clientId)) {
-            clientRequests.get(clientId).remove(invNum);
-            if (clientRequests.get(clientId).isEmpty()) {
-                clientRequests.remove(clientId);
-            }
+    /**
+     * Record the decision "op" at "logIdx" (decided in "round", -1: unknown)
+     * and the progress of the clients whose operations it holds
+     */
+    private void learn(int logIdx, int round, QueueOperation op, boolean answer) {
+        if (logIdx <= checkpoint.index) {
+            return; // already executed and truncated
+        }
+
+        // Store in log; the decided value is also the one to report in later
+        // promises
+        if (paxosLog.decide(logIdx, op) && answer) {
+            toAnswer.add(logIdx);
+        }
+        highestDecided = Math.max(highestDecided, logIdx);
+        if (round > paxosLog.acceptedRound(logIdx)) {
+            paxosLog.accept(logIdx, round, op);
         }
 
-        // OPTIONAL: Update next expected invocation for this client
-        clientNextInvocation.put(clientId, invNum + 1);
-        System.out.println("Replica " + id + " updated clientNextInvocation[" + clientId + "] = " + (invNum + 1));
+        for (QueueOperation decided : op.operations()) {
+            if (decided.getType() == QueueOperation.OperationType.NOOP) {
+                continue;
+            }
+            // Remove from pending requests (OPTIONAL: handle multiple invocations)
+            int clientId = decided.getClientId();
+            int invNum = decided.getInvocationNum();
+            if (clientRequests.containsKey(clientId)) {
+                clientRequests.get(clientId).remove(invNum);
+                if (clientRequests.get(clientId).isEmpty()) {
+                    clientRequests.remove(clientId);
+                }
+            }
+
+            // OPTIONAL: Update next expected invocation for this client
+            // (pipelined decisions may arrive out of order)
+            int next = Math.max(clientNextInvocation.getOrDefault(clientId, 0), invNum + 1);
+            clientNextInvocation.put(clientId, next);
+            System.out.println("Replica " + id + " updated clientNextInvocation[" + clientId + "] = " + next);
+        }
 
         // Update next log index if needed
         if (logIdx >= nextLogIndex) {
             nextLogIndex = logIdx + 1;
         }
+    }
 
-        // Try to execute all consecutive operations
+    /**
+     * Decisions cross the bag channel out of order, so a hole below
+     * nextLogIndex is only requested once it lasted dds.catchupDelayMs
+     * without execution progress; the request is then repeated every
+     * dds.catchupDelayMs, to another peer, until the hole is filled
+     */
+    private void checkGap() {
+        long now = System.currentTimeMillis();
+        if (gapSince == 0 || gapExecutedIndex != lastExecutedIndex) {
+            gapSince = now;
+            gapExecutedIndex = lastExecutedIndex;
+            catchupAttempts = 0;
+        } else if (now - gapSince >= dds.catchupDelayMs) {
+            requestCatchup();
+            gapSince = now;
+        }
+    }
+
+    /**
+     * Request the range from the first missing log index to the last hole
+     * below nextLogIndex (at most CATCHUP_CHUNKS responses of
+     * dds.catchupBatch entries), from the leader first, then from the other
+     * replicas in turn
+     */
+    private void requestCatchup() {
+        if (totalReplicas == 1) {
+            return;
+        }
+        int from = lastExecutedIndex + 1;
+        int to = nextLogIndex - 1;
+        while (to > from && paxosLog.decided(to) != null) {
+            to--;
+        }
+        to = Math.min(to, from + dds.catchupBatch * CATCHUP_CHUNKS - 1);
+
+        int peer;
+        if (catchupAttempts == 0 && knownLeader >= 0 && knownLeader != id) {
+            peer = knownLeader;
+        } else {
+            peer = (id + 1 + catchupAttempts % (totalReplicas - 1)) % totalReplicas;
+        }
+        catchupAttempts++;
+        catchupEnd = to;
+
+        MultiPaxos_Message request = new MultiPaxos_Message(
+                MultiPaxos_Message.PaxosMessageType.CATCHUP_REQUEST, -1, from, id);
+        request.lastIndex = to;
+        System.out.println("Replica " + id + " missing decided entries: sending " + request + " to replica " + peer);
+        sendToReplica(peer, request);
+    }
+
+    /**
+     * Handle CATCHUP_REQUEST: stream the entries decided in the range, in
+     * responses of dds.catchupBatch entries; the first one carries the
+     * checkpoint if the range starts in truncated entries
+     */
+    private void handleCatchupRequest(MultiPaxos_Message msg) {
+        MultiPaxos_Checkpoint cp = null;
+        int idx = msg.logIndex;
+        if (idx <= checkpoint.index) {
+            cp = checkpoint;
+            idx = checkpoint.index + 1;
+        }
+        while (idx <= msg.lastIndex || cp != null) {
+            int first = idx;
+            TreeMap<Integer, QueueOperation> entries = new TreeMap<>();
+            for (; idx <= msg.lastIndex && entries.size() < dds.catchupBatch; idx++) {
+                QueueOperation op = paxosLog.decided(idx);
+                if (op != null) {
+                    entries.put(idx, op);
+                }
+            }
+            if (entries.isEmpty() && cp == null) {
+                break; // not decided here either: the requester asks another peer
+            }
+            sendToReplica(msg.senderId, new MultiPaxos_Message(id, first, entries, cp));
+            cp = null;
+        }
+    }
+
+    /**
+     * Handle CATCHUP_RESPONSE: install the checkpoint, learn the entries,
+     * and request the next range as soon as the one requested is executed
+     */
+    private void handleCatchupResponse(MultiPaxos_Message msg) {
+        System.out.println("Replica " + id + " received " + msg);
+        if (msg.checkpoint != null) {
+            installCheckpoint(msg.checkpoint);
+        }
+        for (Map.Entry<Integer, QueueOperation> e : msg.decidedValues.entrySet()) {
+            learn(e.getKey(), -1, e.getValue(), false);
+        }
         executeLog();
+
+        if (catchupEnd >= 0 && lastExecutedIndex >= catchupEnd) {
+            catchupEnd = -1;
+            if (nextLogIndex > lastExecutedIndex + 1) {
+                catchupAttempts = 0;
+                requestCatchup();
+                gapSince = System.currentTimeMillis();
+                gapExecutedIndex = lastExecutedIndex;
+            }
+        }
     }
 
     /**
@@ -501,25 +1164,114 @@ public class MultiPaxos_Replica extends Thread {
     private void executeLog() {
         int idx = lastExecutedIndex + 1;
 
-        while (log.containsKey(idx)) {
-            QueueOperation op = log.get(idx);
+        QueueOperation op;
+        while ((op = paxosLog.decided(idx)) != null) {
             executeOperation(op, idx);
             lastExecutedIndex = idx;
             idx++;
+            if ((lastExecutedIndex + 1) % dds.checkpointInterval == 0) {
+                takeCheckpoint();
+            }
+        }
+    }
+
+    /**
+     * Checkpoint the queue at lastExecutedIndex, then truncate the log
+     */
+    private void takeCheckpoint() {
+        checkpoint = new MultiPaxos_Checkpoint(lastExecutedIndex, actualQueue, clientNextInvocation);
+        truncate(lastExecutedIndex);
+        if (acceptorLog != null) {
+            try {
+                acceptorLog.compact(checkpoint, promisedRound, paxosLog.acceptedRoundsFrom(checkpoint.index + 1),
+                        paxosLog.acceptedValuesFrom(checkpoint.index + 1));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Replica " + id + " cannot compact its acceptor log", e);
+            }
+        }
+        System.out.println("Replica " + id + " took " + checkpoint + ", " + paxosLog.decidedCount() + " log entries left");
+    }
+
+    /**
+     * Forget the per-slot state of the log indexes up to "index"
+     */
+    private void truncate(int index) {
+        for (int idx = paxosLog.base(); idx <= index && idx < paxosLog.end(); idx++) {
+            QueueOperation op = paxosLog.removeProposal(idx);
+            if (op != null) {
+                inFlight.removeAll(op.operations());
+            }
+        }
+        paxosLog.truncate(index);
+        highestAcceptedRound.headMap(index, true).clear();
+        highestAcceptedValue.headMap(index, true).clear();
+        toAnswer.removeIf(idx -> idx <= index);
+    }
+
+    /**
+     * Install the checkpoint of another replica if it is more recent than
+     * the state of this replica: the queue, and the progress of the clients
+     * Only the log entries after the checkpoint are executed from then on.
+     */
+    private void installCheckpoint(MultiPaxos_Checkpoint cp) {
+        if (cp.index <= lastExecutedIndex) {
+            return;
+        }
+        System.out.println("Replica " + id + " installing " + cp + " (executed up to logIndex " +
+                lastExecutedIndex + ")");
+
+        actualQueue.clear();
+        actualQueue.addAll(cp.queue);
+        lastExecutedIndex = cp.index;
+        checkpoint = cp;
+        truncate(cp.index);
+
+        // Client invocations decided before the checkpoint
+        for (Map.Entry<Integer, Integer> e : cp.nextInvocation.entrySet()) {
+            int clientId = e.getKey();
+            int next = Math.max(clientNextInvocation.getOrDefault(clientId, 0), e.getValue());
+            clientNextInvocation.put(clientId, next);
+            TreeMap<Integer, QueueOperation> invocations = clientRequests.get(clientId);
+            if (invocations != null) {
+                invocations.headMap(next).clear();
+                if (invocations.isEmpty()) {
+                    clientRequests.remove(clientId);
+                }
+            }
+        }
+
+        nextLogIndex = Math.max(nextLogIndex, cp.index + 1);
+        highestDecided = Math.max(highestDecided, cp.index);
+        executeLog();
+    }
+
+    /**
+     * Execute the operations of a log entry on the actual queue, in order
+     */
+    private void executeOperation(QueueOperation entry, int logIdx) {
+        boolean answer = toAnswer.remove(logIdx);
+        for (QueueOperation op : entry.operations()) {
+            executeSingleOperation(op, logIdx, answer);
         }
     }
 
     /**
      * Execute a single operation on the actual queue
      */
-    private void executeOperation(QueueOperation op, int logIdx) {
+    private void executeSingleOperation(QueueOperation op, int logIdx, boolean answer) {
         System.out.println("Replica " + id + " executing at logIndex " + logIdx + ": " + op);
 
+        if (op.getType() == QueueOperation.OperationType.NOOP) {
+            return;
+        }
         if (op.getType() == QueueOperation.OperationType.ENQUEUE) {
             // Enqueue operation
             actualQueue.offer(op.getValue());
             System.out.println("Replica " + id + " enqueued " + op.getValue() +
                     ", queue size: " + actualQueue.size() + ", queue: " + actualQueue);
+            if (answer) {
+                respondToClient(op, null);
+            }
         } else {
             // Dequeue operation
             Integer result = actualQueue.poll();
@@ -527,23 +1279,20 @@ public class MultiPaxos_Replica extends Thread {
                     ", queue size: " + actualQueue.size() + ", queue: " + actualQueue);
 
             // Send result back to client (only this replica sends response)
-            sendDequeueResultToClient(op.getClientId(), result);
+            if (answer) {
+                respondToClient(op, result);
+            }
         }
     }
 
     /**
-     * Send dequeue result back to client
+     * Send the ENQUEUE acknowledgement or the DEQUEUE result to the client
+     * of "op", tagged with its invocation number
      */
-    private void sendDequeueResultToClient(int clientId, Integer result) {
-        // Note: In the current DDS architecture, we need to find the client's
-        // outChannel
-        // This might require modifications to the DDS or Message structure
-        // For now, we'll just log it
-        System.out.println("Replica " + id + " would send dequeue result " + result +
-                " to client " + clientId);
-
-        // TODO: Send response to client via their outChannel
-        // This requires access to client metadata/channel
+    private void respondToClient(QueueOperation op, Integer dequeueResult) {
+        MultiPaxos_Message response = MultiPaxos_Message.response(op, dequeueResult, id);
+        System.out.println("Replica " + id + " sending " + response + " to client " + op.getClientId());
+        dds.respond(op.getClientId(), response);
     }
 
     /**
@@ -565,10 +1314,18 @@ public class MultiPaxos_Replica extends Thread {
     }
 
     /**
-     * Get the replica's log (for verification)
+     * Get the replica's log after its checkpoint (copy, for verification
+     * once the replica stopped)
      */
     public Map<Integer, QueueOperation> getLog() {
-        return new HashMap<>(log);
+        return paxosLog.decidedEntries();
+    }
+
+    /**
+     * Get the latest checkpoint (for verification)
+     */
+    public MultiPaxos_Checkpoint getCheckpoint() {
+        return checkpoint;
     }
 
     /**
@@ -578,6 +1335,14 @@ public class MultiPaxos_Replica extends Thread {
         return new LinkedList<>(actualQueue);
     }
 
+    /**
+     * Get the replica this one knows as leader (-1: none yet; read once the
+     * replica stopped, or as a hint)
+     */
+    public int getKnownLeader() {
+        return knownLeader;
+    }
+
     /**
      * Get replica ID
      */
@@ -1,23 +1,33 @@
 package myDDS;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Represents a queue operation (enqueue or dequeue)
  * This is the PAYLOAD for Multi-Paxos messages
+ * Read-only operations (peek, size, contains) are served by the leader and
+ * never enter the log.
  */
 public class QueueOperation implements Serializable, Comparable<QueueOperation> {
     private static final long serialVersionUID = 1L;
 
     public enum OperationType {
         ENQUEUE, // Add element to queue
-        DEQUEUE // Remove element from queue
+        DEQUEUE, // Remove element from queue
+        NOOP, // Fills a log slot left empty by a previous leader
+        BATCH, // Several operations decided in one log slot, applied in order
+        PEEK, // Read the head of the queue (read-only)
+        SIZE, // Read the size of the queue (read-only)
+        CONTAINS // Whether the queue holds value (read-only)
     }
 
     private final OperationType type;
-    private final Integer value; // Value for ENQUEUE, null for DEQUEUE
+    private final Integer value; // Value for ENQUEUE and CONTAINS, null otherwise
     private final int clientId; // ID of client who submitted this operation
     private final int invocationNum; // Invocation number for this client (for optional part)
+    private final List<QueueOperation> batch; // Operations of a BATCH, null otherwise
 
     // Constructor for basic version (single invocation per client)
     public QueueOperation(OperationType type, Integer value, int clientId) {
@@ -30,6 +40,45 @@ public class QueueOperation implements Serializable, Comparable<QueueOperation>
         this.value = value;
         this.clientId = clientId;
         this.invocationNum = invocationNum;
+        this.batch = null;
+    }
+
+    private QueueOperation(List<QueueOperation> batch) {
+        this.type = OperationType.BATCH;
+        this.value = null;
+        this.clientId = -1;
+        this.invocationNum = 0;
+        this.batch = Collections.unmodifiableList(batch);
+    }
+
+    /**
+     * No-op proposed by a new leader in a slot below the highest slot it
+     * recovered, for which no value was accepted
+     */
+    public static QueueOperation noop() {
+        return new QueueOperation(OperationType.NOOP, null, -1);
+    }
+
+    /**
+     * Operations "ops" in one log slot (the operation itself if there is
+     * only one)
+     */
+    public static QueueOperation batch(List<QueueOperation> ops) {
+        return ops.size() == 1 ? ops.get(0) : new QueueOperation(ops);
+    }
+
+    /**
+     * Operations to apply for this log entry, in order
+     */
+    public List<QueueOperation> operations() {
+        return batch != null ? batch : Collections.singletonList(this);
+    }
+
+    /**
+     * Whether the operation only reads the queue (no log entry)
+     */
+    public boolean isReadOnly() {
+        return type == OperationType.PEEK || type == OperationType.SIZE || type == OperationType.CONTAINS;
     }
 
     public OperationType getType() {
@@ -60,6 +109,13 @@ public class QueueOperation implements Serializable, Comparable<QueueOperation>
         if (type == OperationType.ENQUEUE) {
             return "ENQUEUE(" + value + ") from client " + clientId +
                     (invocationNum > 0 ? ":" + invocationNum : "");
+        } else if (type == OperationType.NOOP) {
+            return "NOOP";
+        } else if (type == OperationType.BATCH) {
+            return "BATCH" + batch;
+        } else if (isReadOnly()) {
+            return type + "(" + (value != null ? value : "") + ") from client " + clientId +
+                    (invocationNum > 0 ? ":" + invocationNum : "");
         } else {
             return "DEQUEUE() from client " + clientId +
                     (invocationNum > 0 ? ":" + invocationNum : "");
@@ -76,7 +132,8 @@ public class QueueOperation implements Serializable, Comparable<QueueOperation>
         return clientId == that.clientId &&
                 invocationNum == that.invocationNum &&
                 type == that.type &&
-                (value == null ? that.value == null : value.equals(that.value));
+                (value == null ? that.value == null : value.equals(that.value)) &&
+                (batch == null ? that.batch == null : batch.equals(that.batch));
     }
 
     @Override
@@ -85,6 +142,7 @@ public class QueueOperation implements Serializable, Comparable<QueueOperation>
         result = 31 * result + (value != null ? value.hashCode() : 0);
         result = 31 * result + clientId;
         result = 31 * result + invocationNum;
+        result = 31 * result + (batch != null ? batch.hashCode() : 0);
         return result;
     }
 
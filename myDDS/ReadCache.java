@@ -0,0 +1,49 @@
+package myDDS;
+
+import java.util.*;
+
+// Bounded LRU cache of read responses, kept by the tail of the chain.
+// Responses are immutable once sent, so the same REPLICA_RD_ACK message is
+// handed to every client reading a register until a write to that register
+// invalidates it.
+public class ReadCache {
+  private LinkedHashMap<String, Message> entries;
+  long hits = 0;
+  long misses = 0;
+  long invalidations = 0;
+
+  public ReadCache(int capacity) {
+    // access order: the eldest entry is the least recently read one
+    entries = new LinkedHashMap<String, Message>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<String, Message> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  // The cached response for "register", or null
+  public synchronized Message get(String register) {
+    Message response = entries.get(register);
+    if (response == null)
+      misses++;
+    else
+      hits++;
+    return response;
+  }
+
+  public synchronized void put(String register, Message response) {
+    entries.put(register, response);
+  }
+
+  public synchronized void invalidate(String register) {
+    if (entries.remove(register) != null)
+      invalidations++;
+  }
+
+  @Override
+  public synchronized String toString() {
+    long reads = hits + misses;
+    return "read cache: " + entries.size() + " entries, " + hits + " hits / " + reads + " reads" +
+        (reads > 0 ? " (" + (100 * hits / reads) + "%)" : "") + ", " + invalidations + " invalidations";
+  }
+}
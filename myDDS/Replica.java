@@ -1,6 +1,8 @@
 package myDDS;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Replica extends Thread {
   // the id of the replica`
@@ -15,6 +17,28 @@ public class Replica extends Thread {
   boolean isHead;
   boolean isTail;
   int nextReplicaId; // -1 if this is the tail
+  // TAIL only: cache of read responses, null when disabled
+  ReadCache readCache = null;
+
+  // Number of lanes applying messages in parallel (partitioned by register),
+  // 1 applies everything on the replica thread
+  int applyLanes = 1;
+  ApplyLane[] lanes = null;
+
+  // Eventual consistency mode: per-register versions (last writer wins),
+  // Lamport clock used to version local writes and Merkle tree of the
+  // (register, value, version) entries used by anti-entropy
+  ConcurrentHashMap<String, Timestamp> versions = new ConcurrentHashMap<String, Timestamp>();
+  AtomicInteger clock = new AtomicInteger();
+  MerkleTree merkle = new MerkleTree(64);
+  // registers of each Merkle bucket
+  ArrayList<Set<String>> bucketRegisters = new ArrayList<Set<String>>();
+  // period between two anti-entropy rounds, 0 disables anti-entropy
+  long antiEntropyPeriodMs = 0;
+  long nextAntiEntropy;
+  int antiEntropyRounds = 0;
+  int antiEntropyEntriesSent = 0;
+  int antiEntropyVersionsSent = 0;
 
   public Replica(int id, DDS dds) {
     this(id, dds, false, false, false, -1);
@@ -28,6 +52,8 @@ public class Replica extends Thread {
     this.isTail = isTail;
     this.nextReplicaId = nextReplicaId;
     localStorage = new HashMapStorage();
+    for (int b = 0; b < merkle.leaves; b++)
+      bucketRegisters.add(ConcurrentHashMap.newKeySet());
 
     if (useChainReplication) {
       String role = isHead ? "HEAD" : (isTail ? "TAIL" : "MIDDLE");
@@ -37,29 +63,86 @@ public class Replica extends Thread {
   }
 
   public void run() {
-    Random r = new Random(System.currentTimeMillis());
-    int dec = 0;
+    if (applyLanes > 1) {
+      lanes = new ApplyLane[applyLanes];
+      for (int i = 0; i < applyLanes; i++) {
+        lanes[i] = new ApplyLane(this, i);
+        lanes[i].start();
+      }
+    }
+    nextAntiEntropy = System.currentTimeMillis() + antiEntropyPeriodMs;
     // handling requests until the client sends a stop message
     while (true) {
+      if (antiEntropyPeriodMs > 0 && System.currentTimeMillis() >= nextAntiEntropy) {
+        startAntiEntropy();
+        nextAntiEntropy = System.currentTimeMillis() + antiEntropyPeriodMs;
+      }
       if (!dds.isEmpty(id)) {
         Message m = (Message) dds.receive(id);
         // if this was a client command then send the response
         System.out.println("Replica " + id + " receiving " + m);
         if (m.isStop()) {
+          // requests routed to us before the stop may still be waiting in
+          // an unordered channel: serve them before leaving
+          while (!dds.isEmpty(id)) {
+            Message pending = (Message) dds.receive(id);
+            if (!pending.isStop())
+              dispatch(pending);
+          }
+          stopLanes();
+          if (readCache != null)
+            System.out.println("TAIL (Replica " + id + ") " + readCache);
+          if (antiEntropyPeriodMs > 0)
+            System.out.println("Replica " + id + " anti-entropy: " + antiEntropyRounds + " rounds started, " +
+                antiEntropyVersionsSent + " versions and " + antiEntropyEntriesSent + " entries shipped");
           break;
         }
-        Message response = execute(m);
-        if (response != null) {
-          m.meta.outChannel.send(response);
-        }
+        dispatch(m);
       }
     }
   }
 
+  // Apply a message on the lane of its register, or on this thread
+  void dispatch(Message m) {
+    if (lanes == null || m.register == null) {
+      handle(m);
+      return;
+    }
+    int h = m.register.hashCode();
+    h ^= (h >>> 16);
+    lanes[Math.floorMod(h, lanes.length)].inbox.send(m);
+  }
+
+  // Let the lanes finish the messages they hold, then stop them
+  private void stopLanes() {
+    if (lanes == null)
+      return;
+    StringBuilder sb = new StringBuilder("Replica " + id + " apply lanes:");
+    for (ApplyLane lane : lanes) {
+      lane.inbox.send(new Message(Message.MessageType.CLIENT_STOP));
+      try {
+        lane.join();
+      } catch (InterruptedException e) {
+      }
+      sb.append(" ").append(lane.applied);
+    }
+    System.out.println(sb);
+  }
+
+  // Execute a message and send the acknowledgment to the client, if any
+  void handle(Message m) {
+    Message response = execute(m);
+    if (response != null) {
+      m.meta.outChannel.send(response);
+    }
+  }
+
   // This method handles a message, a client request or a remote update
   // Returns an acknowledgment (if the message is a client request)
   public Message execute(Message command) {
     Message r = null;
+    // whether r comes from the read cache (and must not be modified)
+    boolean shared = false;
 
     if (useChainReplication) {
       // Chain Replication Logic
@@ -74,6 +157,7 @@ public class Replica extends Thread {
             if (nextReplicaId >= 0) {
               Message fwdMsg = new Message(Message.MessageType.REPLICA_WR_UPD, command.meta, command.register,
                   command.val);
+              fwdMsg.requestId = command.requestId;
               dds.send(fwdMsg, nextReplicaId);
               System.out.println("HEAD forwarding write to replica " + nextReplicaId);
             }
@@ -85,8 +169,16 @@ public class Replica extends Thread {
           // Only TAIL handles client read requests
           if (isTail) {
             System.out.println("TAIL (Replica " + id + ") processing read: " + command.register);
-            String value = localStorage.read(command.register);
-            r = new Message(Message.MessageType.REPLICA_RD_ACK, command.register, value);
+            if (readCache != null) {
+              r = readCache.get(command.register);
+              shared = true;
+            }
+            if (r == null) {
+              String value = localStorage.read(command.register);
+              r = new Message(Message.MessageType.REPLICA_RD_ACK, command.register, value);
+              if (readCache != null)
+                readCache.put(command.register, r);
+            }
           }
           break;
 
@@ -96,6 +188,8 @@ public class Replica extends Thread {
           localStorage.write(command.register, command.val);
 
           if (isTail) {
+            if (readCache != null)
+              readCache.invalidate(command.register);
             // TAIL sends ACK back to client
             System.out.println("TAIL (Replica " + id + ") sending ACK to client");
             r = new Message(Message.MessageType.REPLICA_WR_ACK);
@@ -104,6 +198,7 @@ public class Replica extends Thread {
             if (nextReplicaId >= 0) {
               Message fwdMsg = new Message(Message.MessageType.REPLICA_WR_UPD, command.meta, command.register,
                   command.val);
+              fwdMsg.requestId = command.requestId;
               dds.send(fwdMsg, nextReplicaId);
               System.out.println("Middle replica " + id + " forwarding to replica " + nextReplicaId);
             }
@@ -111,13 +206,16 @@ public class Replica extends Thread {
           break;
       }
     } else {
-      // Original behavior (non-chain replication)
+      // Original behavior (non-chain replication), with versioned writes
       switch (command.type) {
         case CLIENT_WR_REQ:
           // First update our own local storage
-          localStorage.write(command.register, command.val);
+          Timestamp version = new Timestamp(clock.incrementAndGet(), id);
+          applyVersioned(command.register, command.val, version);
           // Then broadcast to other replicas
-          dds.broadcast(id, new Message(Message.MessageType.REPLICA_WR_UPD, command.register, command.val));
+          Message upd = new Message(Message.MessageType.REPLICA_WR_UPD, command.register, command.val);
+          upd.version = version;
+          dds.broadcast(id, upd);
           r = new Message(Message.MessageType.REPLICA_WR_ACK);
           break;
         case CLIENT_RD_REQ:
@@ -126,11 +224,119 @@ public class Replica extends Thread {
           // "("+state.get(command.var)+")");
           break;
         case REPLICA_WR_UPD:
-          localStorage.write(command.register, command.val);
+          // updates may arrive in any order: the highest version wins
+          clock.accumulateAndGet(command.version.counter, Math::max);
+          applyVersioned(command.register, command.val, command.version);
+          break;
+        case REPLICA_ANTI_ENTROPY:
+          handleAntiEntropy((AntiEntropy_Message) command);
           break;
       }
     }
+    // the response answers the request of the client
+    if (r != null && r.requestId != command.requestId) {
+      if (shared)
+        r = r.answering(command.requestId);
+      else
+        r.requestId = command.requestId;
+    }
     return r;
   }
 
+  // Write "val" to "register" if "version" is newer than the local one
+  // Returns whether the write was applied
+  // (only called by the lane of "register", so check and write do not race)
+  boolean applyVersioned(String register, String val, Timestamp version) {
+    Timestamp current = versions.get(register);
+    if (current != null && !version.isGreaterThan(current))
+      return false;
+    int bucket = merkle.bucketOf(register);
+    long oldHash = current == null ? 0 : MerkleTree.entryHash(register, localStorage.read(register), current);
+    merkle.update(bucket, oldHash, MerkleTree.entryHash(register, val, version));
+    if (current == null)
+      bucketRegisters.get(bucket).add(register);
+    localStorage.write(register, val);
+    versions.put(register, version);
+    return true;
+  }
+
+  // Anti-entropy: send our Merkle tree to the next peer (round robin)
+  void startAntiEntropy() {
+    if (dds.nbReplicas < 2)
+      return;
+    int peer = (id + 1 + antiEntropyRounds % (dds.nbReplicas - 1)) % dds.nbReplicas;
+    antiEntropyRounds++;
+    dds.send(new AntiEntropy_Message(id, antiEntropyRounds, merkle.snapshot()), peer);
+  }
+
+  void handleAntiEntropy(AntiEntropy_Message m) {
+    switch (m.aeType) {
+      case DIGEST: {
+        List<Integer> buckets = merkle.diff(m.tree);
+        if (buckets.isEmpty())
+          return;
+        // send the versions of our registers in the differing buckets, the
+        // peer works out which values have to travel
+        AntiEntropy_Message summary = new AntiEntropy_Message(AntiEntropy_Message.AE_MessageType.VERSIONS, id, m);
+        summary.buckets = buckets;
+        for (int bucket : buckets) {
+          for (String register : bucketRegisters.get(bucket)) {
+            Timestamp mine = versions.get(register);
+            if (mine != null)
+              summary.addVersion(register, mine);
+          }
+        }
+        antiEntropyVersionsSent += summary.registers.size();
+        dds.send(summary, m.sender);
+        break;
+      }
+      case VERSIONS: {
+        Map<String, Timestamp> theirs = new HashMap<String, Timestamp>();
+        for (int i = 0; i < m.registers.size(); i++)
+          theirs.put(m.registers.get(i), m.versions.get(i));
+        AntiEntropy_Message delta = new AntiEntropy_Message(AntiEntropy_Message.AE_MessageType.DELTA, id, m);
+        // ship what the peer is missing or has older
+        for (int bucket : m.buckets) {
+          for (String register : bucketRegisters.get(bucket))
+            addEntry(delta, register, theirs.get(register));
+        }
+        // and ask for what we are missing or have older
+        for (Map.Entry<String, Timestamp> e : theirs.entrySet()) {
+          Timestamp mine = versions.get(e.getKey());
+          if (mine == null || e.getValue().isGreaterThan(mine))
+            delta.wanted.add(e.getKey());
+        }
+        if (!delta.registers.isEmpty() || !delta.wanted.isEmpty())
+          dds.send(delta, m.sender);
+        break;
+      }
+      case DELTA: {
+        for (int i = 0; i < m.registers.size(); i++) {
+          // applied like a remote update, on the lane of the register
+          Message upd = new Message(Message.MessageType.REPLICA_WR_UPD, m.registers.get(i), m.values.get(i));
+          upd.version = m.versions.get(i);
+          dispatch(upd);
+        }
+        if (!m.wanted.isEmpty()) {
+          AntiEntropy_Message back = new AntiEntropy_Message(AntiEntropy_Message.AE_MessageType.DELTA, id, m);
+          for (String register : m.wanted)
+            addEntry(back, register, null);
+          if (!back.registers.isEmpty())
+            dds.send(back, m.sender);
+        }
+        break;
+      }
+    }
+  }
+
+  // Add to "delta" our entry of "register" if it is newer than "known"
+  // (whenever we have one when "known" is null)
+  private void addEntry(AntiEntropy_Message delta, String register, Timestamp known) {
+    Timestamp mine = versions.get(register);
+    if (mine != null && (known == null || mine.isGreaterThan(known))) {
+      delta.addEntry(register, localStorage.read(register), mine);
+      antiEntropyEntriesSent++;
+    }
+  }
+
 }
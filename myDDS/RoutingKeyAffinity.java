@@ -0,0 +1,19 @@
+package myDDS;
+
+// Always sends requests on the same register to the same replica, so that a
+// client reads its own writes as long as the replica set does not change
+public class RoutingKeyAffinity extends RoutingPolicy {
+
+  public String name() {
+    return "key-affinity";
+  }
+
+  public int route(DDS dds, Message request) {
+    if (request.register == null)
+      return 0;
+    // spread the bits of String.hashCode before reducing it
+    int h = request.register.hashCode();
+    h ^= (h >>> 16);
+    return Math.floorMod(h, dds.nbReplicas);
+  }
+}
@@ -0,0 +1,31 @@
+package myDDS;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Sends each request to the replica with the fewest messages waiting in its
+// incoming channel; ties are broken by rotating the starting replica so that
+// an idle system still spreads its load
+public class RoutingLeastOutstanding extends RoutingPolicy {
+
+  private AtomicInteger start = new AtomicInteger();
+
+  public String name() {
+    return "least-outstanding";
+  }
+
+  public int route(DDS dds, Message request) {
+    int n = dds.nbReplicas;
+    int first = Math.floorMod(start.getAndIncrement(), n);
+    int best = first;
+    int bestDepth = dds.queueDepth(first);
+    for (int k = 1; k < n && bestDepth > 0; k++) {
+      int i = (first + k) % n;
+      int depth = dds.queueDepth(i);
+      if (depth < bestDepth) {
+        best = i;
+        bestDepth = depth;
+      }
+    }
+    return best;
+  }
+}
@@ -0,0 +1,10 @@
+package myDDS;
+
+// Chooses the replica that serves a client request when the DDS is not
+// running chain replication
+abstract class RoutingPolicy {
+  // short name used when reporting routing metrics
+  public abstract String name();
+  // returns the index of the replica that must receive "request"
+  public abstract int route(DDS dds, Message request);
+}
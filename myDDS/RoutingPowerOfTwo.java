@@ -0,0 +1,25 @@
+package myDDS;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+// Samples two distinct replicas at random and sends the request to the one
+// with the shorter incoming channel ("power of two choices")
+public class RoutingPowerOfTwo extends RoutingPolicy {
+
+  public String name() {
+    return "power-of-two";
+  }
+
+  public int route(DDS dds, Message request) {
+    int n = dds.nbReplicas;
+    ThreadLocalRandom r = ThreadLocalRandom.current();
+    int a = r.nextInt(n);
+    if (n == 1)
+      return a;
+    // draw b among the n-1 other replicas
+    int b = r.nextInt(n - 1);
+    if (b >= a)
+      b++;
+    return dds.queueDepth(b) < dds.queueDepth(a) ? b : a;
+  }
+}
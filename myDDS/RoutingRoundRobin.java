@@ -0,0 +1,17 @@
+package myDDS;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Sends successive requests to successive replicas
+public class RoutingRoundRobin extends RoutingPolicy {
+
+  private AtomicInteger next = new AtomicInteger();
+
+  public String name() {
+    return "round-robin";
+  }
+
+  public int route(DDS dds, Message request) {
+    return Math.floorMod(next.getAndIncrement(), dds.nbReplicas);
+  }
+}
@@ -1,5 +1,7 @@
 package myDDS;
 
+// When a replica applies messages on several lanes, read and write are
+// called concurrently (never concurrently for the same key)
 abstract class Storage {
   public abstract String read(String key);
   public abstract void write(String key, String val);
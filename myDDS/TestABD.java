@@ -1,7 +1,12 @@
 package myDDS;
 
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Test for ABD Algorithm (Question 3)
+ * The default configuration (majority quorums, one gateway) runs first, then
+ * each optional feature runs in its own scenario.
  */
 public class TestABD {
 
@@ -10,76 +15,333 @@ public class TestABD {
         System.out.println("  ABD Algorithm Test (Question 3)");
         System.out.println("==========================================\n");
 
+        boolean allPassed = true;
+
+        allPassed &= testQuorumSystems();
+        allPassed &= testDefault();
+        allPassed &= testFastReads();
+        allPassed &= testSingleWriter();
+        allPassed &= testWeightedQuorums();
+        allPassed &= testHedgingAndTimeouts();
+        allPassed &= testReadLeases();
+
+        System.out.println("==========================================");
+        System.out.println(allPassed ? "✅ ALL TESTS PASSED" : "❌ SOME TESTS FAILED");
+        System.out.println("==========================================");
+        System.out.println("ABD Algorithm: Guarantees linearizability");
+        System.out.println("- Quorum-based (majorities by default: 5/2+1 = 3 replicas, or weighted quorums)");
+        System.out.println("- Several gateways, each with its own writer id in the timestamps");
+        System.out.println("- Replica messages of concurrent operations are batched");
+        System.out.println("- Two-phase writes: Query + Update (Update only on single-writer registers)");
+        System.out.println("- Two-phase reads: Query + Write-back (skipped when the quorum agrees)");
+        System.out.println("- Leased reads are local until a write revokes the lease");
+        System.out.println("- Tolerates up to " + ABD_QuorumSystem.majority(5).faultTolerance() +
+                " failures of 5 replicas with majorities (slow phases can be hedged, then retried)");
+        System.out.println("==========================================\n");
+    }
+
+    /**
+     * Quorums that may not intersect are rejected, and the number of
+     * failures tolerated follows from the weights
+     */
+    static boolean testQuorumSystems() {
+        System.out.println("--- Quorum systems ---");
+        boolean ok;
+        try {
+            new ABD_QuorumSystem(new int[] { 1, 1, 1, 1, 1 }, 2, 3);
+            ok = report(false, "disjoint quorums accepted");
+        } catch (IllegalArgumentException e) {
+            ok = report(true, e.getMessage());
+        }
+        ABD_QuorumSystem majority = ABD_QuorumSystem.majority(5);
+        ok &= report(majority.faultTolerance() == 2, majority + " tolerates " + majority.faultTolerance() +
+                " failures");
+        ABD_QuorumSystem weighted = new ABD_QuorumSystem(new int[] { 2, 1, 1, 1, 1 }, 3, 4);
+        // losing replica 0 and another one leaves a weight of 3 < 4
+        ok &= report(weighted.faultTolerance() == 1, weighted + " tolerates " + weighted.faultTolerance() +
+                " failure");
+        System.out.println();
+        return ok;
+    }
+
+    /**
+     * Default configuration: majorities of 5 replicas, one gateway, two-phase
+     * reads and writes; crashes up to the fault tolerance are survived
+     */
+    static boolean testDefault() throws InterruptedException {
+        System.out.println("--- Default configuration ---");
+        ABD_DDS dds = new ABD_DDS(5);
+        dds.start();
+        Client client = new Client(dds, 0);
+        boolean ok = client.writeThenRead();
+        ok &= concurrentSessions(dds, false);
+        ok &= survivesCrashes(dds, client, dds.quorums.faultTolerance());
+        client.stop();
+        dds.join();
+        System.out.println();
+        return ok;
+    }
+
+    /**
+     * Reads return after their query phase when a write quorum already
+     * stores the value
+     */
+    static boolean testFastReads() throws InterruptedException {
+        System.out.println("--- Fast reads ---");
+        ABD_DDS dds = new ABD_DDS(5);
+        dds.setFastReads(true);
+        dds.start();
+        Client client = new Client(dds, 0);
+        boolean ok = client.writeThenRead();
+        ok &= concurrentSessions(dds, false);
+        client.stop();
+        dds.join();
+        System.out.println();
+        return ok;
+    }
+
+    /**
+     * Two gateways, each register written by its home gateway only: after a
+     * first two-phase write, writes take a single round trip
+     */
+    static boolean testSingleWriter() throws InterruptedException {
+        System.out.println("--- Single writer, 2 gateways ---");
+        ABD_DDS dds = new ABD_DDS(5, 2);
+        dds.setSingleWriterMode(true);
+        dds.start();
+        Client client = new Client(dds, 0);
+        boolean ok = client.writeThenRead();
+        ok &= concurrentSessions(dds, true);
+        client.stop();
+        dds.join();
+        System.out.println();
+        return ok;
+    }
+
+    /**
+     * Replica 0 (say, the fastest) weighs 2, reads need a weight of 3 out of
+     * 6 and writes 4: only one failure is tolerated, and losing replica 0
+     * uses it up
+     */
+    static boolean testWeightedQuorums() throws InterruptedException {
+        System.out.println("--- Weighted quorums ---");
+        ABD_DDS dds = new ABD_DDS(5);
+        dds.setQuorumSystem(new int[] { 2, 1, 1, 1, 1 }, 3, 4);
+        dds.setTimeouts(200, 3);
+        dds.start();
+        System.out.println("Tolerates up to " + dds.quorums.faultTolerance() + " failure(s)");
+        Client client = new Client(dds, 0);
+        boolean ok = client.writeThenRead();
+        ok &= concurrentSessions(dds, false);
+        ok &= survivesCrashes(dds, client, dds.quorums.faultTolerance());
+        ok &= failsWithoutQuorum(dds, client);
+        client.stop();
+        dds.join();
+        System.out.println();
+        return ok;
+    }
+
+    /**
+     * Each phase goes to a quorum first, to every replica after 20 ms;
+     * without a quorum after 200 ms it is retried, 3 times at most
+     */
+    static boolean testHedgingAndTimeouts() throws InterruptedException {
+        System.out.println("--- Hedging and timeouts ---");
         ABD_DDS dds = new ABD_DDS(5);
+        dds.setHedging(20);
+        dds.setTimeouts(200, 3);
+        dds.start();
+        Client client = new Client(dds, 0);
+        boolean ok = client.writeThenRead();
+        ok &= concurrentSessions(dds, false);
+        // the phases the crashed replicas were part of are hedged to the others
+        ok &= survivesCrashes(dds, client, dds.quorums.faultTolerance());
+        ok &= failsWithoutQuorum(dds, client);
+        client.stop();
+        dds.join();
+        System.out.println();
+        return ok;
+    }
+
+    /**
+     * Reads take 1 s leases (expiring 50 ms early at the gateways) and are
+     * then answered by their gateway until a write from any gateway revokes
+     * them
+     */
+    static boolean testReadLeases() throws InterruptedException {
+        System.out.println("--- Read leases, 2 gateways ---");
+        ABD_DDS dds = new ABD_DDS(5, 2);
+        dds.setReadLeases(1000, 50);
         dds.start();
+        Client client = new Client(dds, 0);
+        boolean ok = client.writeThenRead();
+        // client 0 is on gateway 0, the session on gateway 1
+        ClientSession other = dds.openSession(1);
+        System.out.println("[Client] Reading x 3 times, writing x=500 from gateway 1, reading x again");
+        boolean leasesOk = true;
+        for (int i = 0; i < 3; i++) {
+            leasesOk &= "100".equals(client.read("x").val);
+        }
+        other.write("x", "500").join();
+        Message leased = client.read("x");
+        System.out.println("[Client] Read result after the write: x=" + leased.val);
+        leasesOk &= "500".equals(leased.val);
+        other.close();
+        ok &= report(leasesOk, "leased reads see the write that revoked their lease");
+        client.stop();
+        dds.join();
+        System.out.println();
+        return ok;
+    }
 
-        Thread.sleep(100);
-
-        Thread client = new Thread(new Runnable() {
-            public void run() {
-                try {
-                    ChannelFIFO responseChannel = new ChannelFIFO();
-                    ChannelFIFO commandChannel = dds.connect(0, responseChannel);
-                    Metadata meta = new Metadata(responseChannel);
-
-                    // Write x=100
-                    System.out.println("[Client] Writing x=100");
-                    commandChannel.send(new Message(Message.MessageType.CLIENT_WR_REQ, meta, "x", "100"));
-                    responseChannel.receive();
-                    System.out.println("[Client] Write completed\n");
-
-                    Thread.sleep(200);
-
-                    // Read x
-                    System.out.println("[Client] Reading x");
-                    commandChannel.send(new Message(Message.MessageType.CLIENT_RD_REQ, meta, "x"));
-                    Message read1 = responseChannel.receive();
-                    System.out.println("[Client] Read result: x=" + read1.val);
-
-                    if ("100".equals(read1.val)) {
-                        System.out.println("✓ TEST PASSED - ABD Algorithm works!\n");
-                    } else {
-                        System.out.println("✗ TEST FAILED\n");
-                    }
-
-                    // Write y=200
-                    System.out.println("[Client] Writing y=200");
-                    commandChannel.send(new Message(Message.MessageType.CLIENT_WR_REQ, meta, "y", "200"));
-                    responseChannel.receive();
-                    System.out.println("[Client] Write completed\n");
-
-                    Thread.sleep(200);
-
-                    // Read y
-                    System.out.println("[Client] Reading y");
-                    commandChannel.send(new Message(Message.MessageType.CLIENT_RD_REQ, meta, "y"));
-                    Message read2 = responseChannel.receive();
-                    System.out.println("[Client] Read result: y=" + read2.val);
-
-                    if ("200".equals(read2.val)) {
-                        System.out.println("✓ TEST PASSED\n");
-                    } else {
-                        System.out.println("✗ TEST FAILED\n");
-                    }
-
-                    // Stop
-                    commandChannel.send(new Message(Message.MessageType.CLIENT_STOP));
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+    /**
+     * 3 pipelined sessions write, overwrite then read 10 registers each; with
+     * "twoGateways", two sessions on different gateways also race on "z"
+     */
+    static boolean concurrentSessions(ABD_DDS dds, boolean twoGateways) {
+        System.out.println("[Client] 3 sessions pipelining 10 writes, 10 overwrites, then 10 reads each");
+        List<ClientSession> sessions = new ArrayList<>();
+        List<CompletableFuture<Message>> writes = new ArrayList<>();
+        for (int c = 1; c <= 3; c++) {
+            ClientSession session = dds.openSession(c);
+            sessions.add(session);
+            for (int i = 0; i < 10; i++) {
+                writes.add(session.write("c" + c + "k" + i, "v" + c + "." + i));
+            }
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+        writes.clear();
+        for (int c = 1; c <= 3; c++) {
+            for (int i = 0; i < 10; i++) {
+                writes.add(sessions.get(c - 1).write("c" + c + "k" + i, "w" + c + "." + i));
+            }
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+        boolean ok = true;
+        for (int c = 1; c <= 3; c++) {
+            List<CompletableFuture<Message>> reads = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                reads.add(sessions.get(c - 1).read("c" + c + "k" + i));
+            }
+            for (int i = 0; i < 10; i++) {
+                ok &= ("w" + c + "." + i).equals(reads.get(i).join().val);
+            }
+        }
+        if (twoGateways) {
+            // sessions 1 and 2 run on different gateways: their concurrent
+            // writes to "z" must leave every reader with the same last value
+            writes.clear();
+            for (int i = 0; i < 10; i++) {
+                writes.add(sessions.get(0).write("z", "a" + i));
+                writes.add(sessions.get(1).write("z", "b" + i));
+            }
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+            String z1 = sessions.get(0).read("z").join().val;
+            String z2 = sessions.get(1).read("z").join().val;
+            ok &= z1 != null && z1.equals(z2);
+        }
+        for (ClientSession session : sessions) {
+            session.close();
+        }
+        return report(ok, "concurrent ABD operations");
+    }
+
+    /**
+     * Crash the "failures" heaviest replicas: operations still complete
+     */
+    static boolean survivesCrashes(ABD_DDS dds, Client client, int failures) throws InterruptedException {
+        List<Integer> crashed = crash(dds, failures);
+        System.out.println("[Client] Crashed replicas " + crashed);
+        boolean ok = true;
+        for (int i = 0; i < 5; i++) {
+            ok &= client.write("h" + i, "" + i).type == Message.MessageType.REPLICA_WR_ACK;
+        }
+        for (int i = 0; i < 5; i++) {
+            ok &= ("" + i).equals(client.read("h" + i).val);
+        }
+        return report(ok, "operations complete despite " + failures + " crashed replica(s)");
+    }
+
+    /**
+     * One more crash: no quorum any more, a read fails after its retries
+     * instead of waiting forever
+     */
+    static boolean failsWithoutQuorum(ABD_DDS dds, Client client) throws InterruptedException {
+        List<Integer> crashed = crash(dds, 1);
+        System.out.println("[Client] Crashed replica " + crashed);
+        Message failed = client.read("q");
+        System.out.println("[Client] Read result: " + failed);
+        return report(failed.type == Message.MessageType.REPLICA_ERROR,
+                "no quorum: the read fails after its retries");
+    }
+
+    /**
+     * Stop the "count" heaviest replicas still running
+     */
+    static List<Integer> crash(ABD_DDS dds, int count) throws InterruptedException {
+        List<Integer> crashed = new ArrayList<>();
+        while (crashed.size() < count) {
+            int heaviest = -1;
+            for (int i = 0; i < dds.nbReplicas; i++) {
+                if (dds.replicas[i].isAlive() && !crashed.contains(i)
+                        && (heaviest < 0 || dds.quorums.weight(i) > dds.quorums.weight(heaviest))) {
+                    heaviest = i;
                 }
             }
-        });
+            dds.send(new Message(Message.MessageType.CLIENT_STOP), heaviest);
+            dds.replicas[heaviest].join();
+            crashed.add(heaviest);
+        }
+        return crashed;
+    }
 
-        client.start();
-        client.join();
-        dds.join();
+    static boolean report(boolean ok, String what) {
+        System.out.println(ok ? "✓ TEST PASSED - " + what + "\n" : "✗ TEST FAILED - " + what + "\n");
+        return ok;
+    }
 
-        System.out.println("==========================================");
-        System.out.println("ABD Algorithm: Guarantees linearizability");
-        System.out.println("- Quorum-based (majority: 5/2+1 = 3 replicas)");
-        System.out.println("- Two-phase writes: Query + Update");
-        System.out.println("- Two-phase reads: Query + Write-back");
-        System.out.println("- Tolerates up to 2 failures");
-        System.out.println("==========================================\n");
+    /**
+     * A client sending one request at a time
+     */
+    static class Client {
+        final ChannelFIFO responseChannel = new ChannelFIFO();
+        final ChannelFIFO commandChannel;
+        final Metadata meta = new Metadata(responseChannel);
+
+        Client(ABD_DDS dds, int clientId) {
+            commandChannel = dds.connect(clientId, responseChannel);
+        }
+
+        Message write(String register, String val) {
+            commandChannel.send(new Message(Message.MessageType.CLIENT_WR_REQ, meta, register, val));
+            return responseChannel.receive();
+        }
+
+        Message read(String register) {
+            commandChannel.send(new Message(Message.MessageType.CLIENT_RD_REQ, meta, register));
+            return responseChannel.receive();
+        }
+
+        /**
+         * Write then read x and y
+         */
+        boolean writeThenRead() throws InterruptedException {
+            System.out.println("[Client] Writing x=100");
+            write("x", "100");
+            Thread.sleep(200);
+            Message read1 = read("x");
+            System.out.println("[Client] Read result: x=" + read1.val);
+            boolean ok = report("100".equals(read1.val), "ABD Algorithm works!");
+            System.out.println("[Client] Writing y=200");
+            write("y", "200");
+            Thread.sleep(200);
+            Message read2 = read("y");
+            System.out.println("[Client] Read result: y=" + read2.val);
+            return ok & report("200".equals(read2.val), "read y=200");
+        }
+
+        void stop() {
+            commandChannel.send(new Message(Message.MessageType.CLIENT_STOP));
+        }
     }
 }
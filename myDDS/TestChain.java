@@ -1,5 +1,8 @@
 package myDDS;
 
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Test for Chain Replication (Question 2)
  */
@@ -12,6 +15,8 @@ public class TestChain {
 
         // Create DDS with Chain Replication enabled and FIFO channels
         DDS dds = new DDS(new ChannelFIFO(), 3, true);
+        // The tail caches read responses; writes must invalidate them
+        dds.enableTailReadCache(16);
 
         Thread client = new Thread(new Runnable() {
             public void run() {
@@ -60,6 +65,88 @@ public class TestChain {
                         System.out.println("✗ TEST FAILED\n");
                     }
 
+                    // Overwrite x (cached at the tail) and read it again
+                    System.out.println("[Client] Writing x=300");
+                    commandChannel.send(new Message(Message.MessageType.CLIENT_WR_REQ, meta, "x", "300"));
+                    responseChannel.receive();
+                    System.out.println("[Client] Write completed\n");
+
+                    System.out.println("[Client] Reading x");
+                    commandChannel.send(new Message(Message.MessageType.CLIENT_RD_REQ, meta, "x"));
+                    Message read3 = responseChannel.receive();
+                    System.out.println("[Client] Read result: x=" + read3.val);
+
+                    if ("300".equals(read3.val)) {
+                        System.out.println("✓ TEST PASSED - write invalidated the tail read cache\n");
+                    } else {
+                        System.out.println("✗ TEST FAILED\n");
+                    }
+
+                    // Read x again with no write in between: served from the
+                    // tail read cache, each response with its own requestId
+                    System.out.println("[Client] Reading x 3 more times");
+                    boolean repeatedOk = true;
+                    for (long requestId = 1001; requestId <= 1003; requestId++) {
+                        Message again = new Message(Message.MessageType.CLIENT_RD_REQ, meta, "x");
+                        again.requestId = requestId;
+                        commandChannel.send(again);
+                        Message response = responseChannel.receive();
+                        System.out.println("[Client] Read result: x=" + response.val + " (request " +
+                                response.requestId + ")");
+                        repeatedOk &= "300".equals(response.val) && response.requestId == requestId;
+                    }
+
+                    if (repeatedOk) {
+                        System.out.println("✓ TEST PASSED - repeated reads answered their own requests\n");
+                    } else {
+                        System.out.println("✗ TEST FAILED\n");
+                    }
+
+                    // Pipelined session: many requests outstanding at once
+                    System.out.println("[Client] Pipelining 20 writes then 20 reads");
+                    ClientSession session = dds.openSession(1);
+                    List<CompletableFuture<Message>> writes = new ArrayList<>();
+                    for (int i = 0; i < 20; i++) {
+                        writes.add(session.write("k" + i, "v" + i));
+                    }
+                    CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+                    List<CompletableFuture<Message>> reads = new ArrayList<>();
+                    for (int i = 0; i < 20; i++) {
+                        reads.add(session.read("k" + i));
+                    }
+                    boolean pipelineOk = true;
+                    for (int i = 0; i < 20; i++) {
+                        pipelineOk &= ("v" + i).equals(reads.get(i).join().val);
+                    }
+
+                    if (pipelineOk) {
+                        System.out.println("✓ TEST PASSED - pipelined responses matched their requests\n");
+                    } else {
+                        System.out.println("✗ TEST FAILED\n");
+                    }
+
+                    // The same register read 5 times in flight by the session:
+                    // the tail serves the cached response under 5 requestIds
+                    System.out.println("[Client] Pipelining 5 reads of k7");
+                    List<CompletableFuture<Message>> sameReads = new ArrayList<>();
+                    for (int i = 0; i < 5; i++) {
+                        sameReads.add(session.read("k7"));
+                    }
+                    Set<Long> requestIds = new HashSet<>();
+                    boolean sameOk = true;
+                    for (CompletableFuture<Message> read : sameReads) {
+                        Message response = read.join();
+                        sameOk &= "v7".equals(response.val);
+                        requestIds.add(response.requestId);
+                    }
+                    session.close();
+
+                    if (sameOk && requestIds.size() == 5) {
+                        System.out.println("✓ TEST PASSED - cached reads kept distinct requestIds " + requestIds + "\n");
+                    } else {
+                        System.out.println("✗ TEST FAILED\n");
+                    }
+
                     // Stop
                     commandChannel.send(new Message(Message.MessageType.CLIENT_STOP));
                 } catch (InterruptedException e) {
@@ -73,6 +160,13 @@ public class TestChain {
         client.join();
         dds.join();
 
+        ReadCache cache = dds.replicaOf(2).readCache;
+        if (cache.hits > 0) {
+            System.out.println("✓ TEST PASSED - the tail served " + cache.hits + " reads from its cache\n");
+        } else {
+            System.out.println("✗ TEST FAILED - the tail read cache had no hits\n");
+        }
+
         System.out.println("==========================================");
         System.out.println("Chain Replication: Guarantees linearizability");
         System.out.println("- All writes through HEAD -> MIDDLE -> TAIL");
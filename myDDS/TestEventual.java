@@ -0,0 +1,357 @@
+package myDDS;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tests of the eventual consistency mode (DDS without Chain Replication)
+ * Validates:
+ * - Every routing policy forwards the client requests as it promises
+ * - Anti-entropy ships only the stale entries and repairs lost updates
+ * - Apply lanes keep the order of the writes on each register
+ */
+public class TestEventual {
+
+    static final int REPLICAS = 3;
+    static final int REGISTERS = 10;
+    static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("==========================================");
+        System.out.println("  Eventual Consistency Tests");
+        System.out.println("==========================================\n");
+
+        boolean allPassed = true;
+
+        allPassed &= testRouting(new RoutingRoundRobin());
+        allPassed &= testRouting(new RoutingLeastOutstanding());
+        allPassed &= testRouting(new RoutingKeyAffinity());
+        allPassed &= testRouting(new RoutingPowerOfTwo());
+        allPassed &= testRoutingAvoidsBusyReplicas();
+        allPassed &= testAntiEntropyShipsStaleEntries();
+        allPassed &= testAntiEntropyRepairsLostUpdate();
+        allPassed &= testApplyLanes();
+
+        System.out.println("==========================================");
+        System.out.println(allPassed ? "✅ ALL TESTS PASSED" : "❌ SOME TESTS FAILED");
+        System.out.println("==========================================");
+    }
+
+    /**
+     * Run ROUNDS writes then ROUNDS reads on each of REGISTERS registers
+     * through "policy" and check how the gateway spread them
+     */
+    static boolean testRouting(RoutingPolicy policy) throws InterruptedException {
+        System.out.println("--- Routing: " + policy.name() + " ---");
+        DDS dds = new DDS(new ChannelBag(), REPLICAS, policy);
+        dds.start();
+        ClientSession session = dds.openSession(0);
+
+        // one write per register and round: a register never has two writes
+        // in flight, so its replica applies them in order
+        List<CompletableFuture<Message>> reads = new ArrayList<>();
+        for (int round = 0; round < ROUNDS; round++) {
+            List<CompletableFuture<Message>> writes = new ArrayList<>();
+            for (int r = 0; r < REGISTERS; r++) {
+                writes.add(session.write("r" + r, "v" + round));
+            }
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+        }
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int r = 0; r < REGISTERS; r++) {
+                reads.add(session.read("r" + r));
+            }
+        }
+        CompletableFuture.allOf(reads.toArray(new CompletableFuture[0])).join();
+        session.stop();
+        dds.join();
+        session.close();
+
+        boolean ok = true;
+        long total = 0;
+        for (int i = 0; i < REPLICAS; i++) {
+            total += dds.routedCount(i);
+        }
+        long expectedTotal = 2L * ROUNDS * REGISTERS;
+        ok &= check(total == expectedTotal, "routed " + total + " of " + expectedTotal + " requests");
+
+        String stats = dds.routingStats();
+        System.out.println(stats);
+        ok &= check(stats.startsWith("Routing (" + policy.name() + "):"), "stats name the policy");
+        for (int i = 0; i < REPLICAS; i++) {
+            ok &= check(stats.contains(" replica " + i + "=" + dds.routedCount(i) + " "),
+                    "stats report replica " + i);
+        }
+
+        if (policy instanceof RoutingRoundRobin) {
+            for (int i = 0; i < REPLICAS; i++) {
+                ok &= check(dds.routedCount(i) == expectedTotal / REPLICAS,
+                        "replica " + i + " got an equal share (" + dds.routedCount(i) + ")");
+            }
+        } else if (policy instanceof RoutingKeyAffinity) {
+            // each register went to one replica, its writes and reads alike
+            long[] expected = new long[REPLICAS];
+            for (int r = 0; r < REGISTERS; r++) {
+                Message probe = new Message(Message.MessageType.CLIENT_RD_REQ, (Metadata) null, "r" + r);
+                expected[policy.route(dds, probe)] += 2 * ROUNDS;
+            }
+            for (int i = 0; i < REPLICAS; i++) {
+                ok &= check(dds.routedCount(i) == expected[i],
+                        "replica " + i + " got the requests of its registers (" + dds.routedCount(i) + "/" +
+                        expected[i] + ")");
+            }
+            // so a client reads its own writes
+            boolean ownWrites = true;
+            for (CompletableFuture<Message> read : reads) {
+                ownWrites &= ("v" + (ROUNDS - 1)).equals(read.join().val);
+            }
+            ok &= check(ownWrites, "every read returned the last write of its register");
+        } else {
+            for (int i = 0; i < REPLICAS; i++) {
+                ok &= check(dds.routedCount(i) > 0, "replica " + i + " served requests (" +
+                        dds.routedCount(i) + ")");
+            }
+        }
+        System.out.println();
+        return ok;
+    }
+
+    /**
+     * The load-aware policies never pick a replica with a longer queue when
+     * a shorter one is available
+     */
+    static boolean testRoutingAvoidsBusyReplicas() {
+        System.out.println("--- Routing: load-aware policies avoid busy replicas ---");
+        // not started: the queued messages stay where they are
+        DDS dds = new DDS(new ChannelBag(), REPLICAS);
+        for (int k = 0; k < 5; k++) {
+            dds.send(new Message(Message.MessageType.REPLICA_WR_UPD, "busy", "" + k), 0);
+            dds.send(new Message(Message.MessageType.REPLICA_WR_UPD, "busy", "" + k), 2);
+        }
+        Message request = new Message(Message.MessageType.CLIENT_RD_REQ, (Metadata) null, "x");
+        RoutingPolicy leastOutstanding = new RoutingLeastOutstanding();
+        RoutingPolicy powerOfTwo = new RoutingPowerOfTwo();
+        boolean leastOk = true;
+        int idleChosen = 0;
+        for (int k = 0; k < 100; k++) {
+            leastOk &= leastOutstanding.route(dds, request) == 1;
+            if (powerOfTwo.route(dds, request) == 1)
+                idleChosen++;
+        }
+        boolean ok = check(leastOk, "least-outstanding always chose the idle replica");
+        // the idle replica loses only when it is not sampled: 1 time in 3
+        ok &= check(idleChosen > 40, "power-of-two chose the idle replica " + idleChosen + "/100 times");
+        System.out.println();
+        return ok;
+    }
+
+    /**
+     * One anti-entropy round, driven by hand on replicas that are not
+     * started: only the two entries that differ carry a value
+     */
+    static boolean testAntiEntropyShipsStaleEntries() {
+        System.out.println("--- Anti-entropy: only stale entries are shipped ---");
+        DDS dds = new DDS(new ChannelBag(), 2);
+        Replica a = dds.replicaOf(0), b = dds.replicaOf(1);
+        for (int r = 0; r < 500; r++) {
+            a.applyVersioned("r" + r, "v" + r, new Timestamp(1, 0));
+            b.applyVersioned("r" + r, "v" + r, new Timestamp(1, 0));
+        }
+        // a holds a register b never saw, b a newer value of r7
+        a.applyVersioned("extra", "e", new Timestamp(2, 0));
+        b.applyVersioned("r7", "new", new Timestamp(2, 1));
+
+        a.startAntiEntropy(); // DIGEST a -> b
+        b.execute(dds.receive(1)); // VERSIONS b -> a
+        a.execute(dds.receive(0)); // DELTA a -> b with "extra", wanting r7
+        b.execute(dds.receive(1)); // DELTA b -> a with r7
+        a.execute(dds.receive(0));
+
+        boolean ok = check(dds.isEmpty(0) && dds.isEmpty(1), "the round is over after four messages");
+        ok &= check(a.merkle.root() == b.merkle.root() && contents(a).equals(contents(b)),
+                "both replicas hold the same entries");
+        ok &= check("new".equals(a.localStorage.read("r7")) && "e".equals(b.localStorage.read("extra")),
+                "each replica got the entry it was missing");
+        ok &= check(a.antiEntropyEntriesSent + b.antiEntropyEntriesSent == 2,
+                "2 values shipped (" + b.antiEntropyVersionsSent + " versions compared, out of 501 registers)");
+        System.out.println();
+        return ok;
+    }
+
+    /**
+     * A replica misses a broadcast update; anti-entropy brings it back in
+     * line with the others
+     */
+    static boolean testAntiEntropyRepairsLostUpdate() throws InterruptedException {
+        System.out.println("--- Anti-entropy: a lost update is repaired ---");
+        DDS dds = new DDS(new ChannelBag(), REPLICAS);
+        DroppingChannel lossy = new DroppingChannel(1);
+        dds.channels[2] = lossy;
+        dds.enableAntiEntropy(20);
+        dds.start();
+        ClientSession session = dds.openSession(0);
+        List<CompletableFuture<Message>> writes = new ArrayList<>();
+        for (int r = 0; r < REGISTERS; r++) {
+            writes.add(session.write("r" + r, "v" + r));
+        }
+        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+
+        boolean converged = false;
+        long deadline = System.currentTimeMillis() + 3000;
+        while (!converged && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            converged = true;
+            for (int i = 1; i < REPLICAS; i++) {
+                converged &= contents(dds.replicaOf(i)).equals(contents(dds.replicaOf(0)));
+            }
+        }
+        session.stop();
+        dds.join();
+        session.close();
+
+        boolean ok = check(lossy.dropped == 1, "replica 2 lost " + lossy.dropped + " update");
+        ok &= check(converged && contents(dds.replicaOf(0)).size() == REGISTERS,
+                "all replicas hold the " + REGISTERS + " registers");
+        System.out.println();
+        return ok;
+    }
+
+    /**
+     * 4 clients pipeline writes to 32 registers on replicas applying them on
+     * 4 lanes: every replica applies the writes of a register in the order
+     * they were sent, and all replicas end in the same state
+     */
+    static boolean testApplyLanes() throws InterruptedException {
+        System.out.println("--- Apply lanes: 4 lanes, 4 clients, 32 registers ---");
+        int clients = 4, registersPerClient = 8, writesPerRegister = 20;
+        // FIFO channels and key affinity: the writes of a register reach one
+        // replica, then the others, in the order the client sent them
+        DDS dds = new DDS(new ChannelFIFO(), REPLICAS, new RoutingKeyAffinity());
+        dds.setApplyLanes(4);
+        RecordingStorage[] storages = new RecordingStorage[REPLICAS];
+        for (int i = 0; i < REPLICAS; i++) {
+            storages[i] = new RecordingStorage();
+            dds.replicaOf(i).localStorage = storages[i];
+        }
+        dds.start();
+
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            ClientSession session = dds.openSession(c);
+            int client = c;
+            threads[c] = new Thread(() -> {
+                List<CompletableFuture<Message>> writes = new ArrayList<>();
+                for (int w = 0; w < writesPerRegister; w++) {
+                    for (int r = 0; r < registersPerClient; r++) {
+                        writes.add(session.write("c" + client + "r" + r, "" + w));
+                    }
+                }
+                CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])).join();
+                session.close();
+            });
+            threads[c].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        // every write is acknowledged, so its updates are already queued
+        dds.openSession(clients).stop();
+        dds.join();
+
+        boolean inOrder = true;
+        for (int i = 0; i < REPLICAS; i++) {
+            for (Map.Entry<String, List<String>> e : storages[i].history.entrySet()) {
+                List<String> writes = e.getValue();
+                for (int k = 1; k < writes.size(); k++) {
+                    if (Integer.parseInt(writes.get(k)) <= Integer.parseInt(writes.get(k - 1))) {
+                        System.out.println("Replica " + i + " applied " + e.getKey() + " out of order: " +
+                                writes);
+                        inOrder = false;
+                        break;
+                    }
+                }
+            }
+        }
+        boolean ok = check(inOrder, "every replica applied the writes of each register in order");
+
+        boolean lastWins = true;
+        String last = "" + (writesPerRegister - 1);
+        for (int c = 0; c < clients; c++) {
+            for (int r = 0; r < registersPerClient; r++) {
+                lastWins &= last.equals(storages[0].read("c" + c + "r" + r));
+            }
+        }
+        ok &= check(lastWins, "replica 0 holds the last write of every register");
+        boolean same = contents(dds.replicaOf(0)).size() == clients * registersPerClient;
+        for (int i = 1; i < REPLICAS; i++) {
+            same &= contents(dds.replicaOf(i)).equals(contents(dds.replicaOf(0)));
+        }
+        ok &= check(same, "all replicas hold the same " + clients * registersPerClient + " entries");
+
+        boolean parallel = true;
+        for (int i = 0; i < REPLICAS; i++) {
+            int busyLanes = 0;
+            for (ApplyLane lane : dds.replicaOf(i).lanes) {
+                if (lane.applied > 0)
+                    busyLanes++;
+            }
+            parallel &= busyLanes > 1;
+        }
+        ok &= check(parallel, "every replica spread the registers over several lanes");
+        System.out.println();
+        return ok;
+    }
+
+    /**
+     * "register=value@version" of every register of "replica"
+     */
+    static Map<String, String> contents(Replica replica) {
+        Map<String, String> result = new TreeMap<>();
+        for (Map.Entry<String, Timestamp> e : replica.versions.entrySet()) {
+            result.put(e.getKey(), replica.localStorage.read(e.getKey()) + "@" + e.getValue());
+        }
+        return result;
+    }
+
+    static boolean check(boolean condition, String what) {
+        System.out.println((condition ? "✓ " : "❌ ") + what);
+        return condition;
+    }
+}
+
+/**
+ * Bag channel losing the first REPLICA_WR_UPD messages sent to it
+ */
+class DroppingChannel extends ChannelBag {
+    private int updatesToDrop;
+    int dropped = 0;
+
+    DroppingChannel(int updatesToDrop) {
+        this.updatesToDrop = updatesToDrop;
+    }
+
+    @Override
+    public synchronized void send(Message message) {
+        if (message.type == Message.MessageType.REPLICA_WR_UPD && updatesToDrop > 0) {
+            updatesToDrop--;
+            dropped++;
+            return;
+        }
+        super.send(message);
+    }
+}
+
+/**
+ * Storage remembering the successive values written to each register
+ */
+class RecordingStorage extends HashMapStorage {
+    ConcurrentHashMap<String, List<String>> history = new ConcurrentHashMap<>();
+
+    @Override
+    public void write(String key, String val) {
+        // a register is only written by its lane
+        history.computeIfAbsent(key, k -> new ArrayList<>()).add(val);
+        super.write(key, val);
+    }
+}
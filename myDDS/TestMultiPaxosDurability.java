@@ -0,0 +1,250 @@
+package myDDS;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durability of the Multi-Paxos acceptor state (MultiPaxos_AcceptorLog)
+ * - Accept latency (append until the reply may be sent) per fsync policy
+ * - Crash recovery: a child JVM logging accepts is killed (SIGKILL); every
+ *   accept it reported as answered must be recovered
+ * - A record torn at the end of the file is dropped on recovery
+ * - A whole DDS restarted over the same directory recovers the queue
+ */
+public class TestMultiPaxosDurability {
+
+    static final int WINDOW = 8; // PROPOSEs handled between two group commits
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 3 && args[0].equals("child")) {
+            runChild(new File(args[1]), MultiPaxos_AcceptorLog.FsyncPolicy.valueOf(args[2]));
+            return;
+        }
+
+        System.out.println("╔════════════════════════════════════════════════════════╗");
+        System.out.println("║   Multi-Paxos - Durability Test Suite                ║");
+        System.out.println("╚════════════════════════════════════════════════════════╝\n");
+
+        File dir = Files.createTempDirectory("paxos-durability").toFile();
+        boolean allPassed = true;
+
+        reportAcceptLatency(dir);
+        for (MultiPaxos_AcceptorLog.FsyncPolicy policy : MultiPaxos_AcceptorLog.FsyncPolicy.values()) {
+            allPassed &= testKill(dir, policy);
+        }
+        allPassed &= testTornRecord(dir);
+        allPassed &= testRestart(new File(dir, "dds"));
+        delete(dir);
+
+        System.out.println("\n╔════════════════════════════════════════════════════════╗");
+        if (allPassed) {
+            System.out.println("║           ✅ ALL TESTS PASSED ✅                      ║");
+        } else {
+            System.out.println("║           ❌ SOME TESTS FAILED ❌                    ║");
+        }
+        System.out.println("╚════════════════════════════════════════════════════════╝");
+        System.exit(allPassed ? 0 : 1);
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    static QueueOperation op(int i) {
+        return new QueueOperation(QueueOperation.OperationType.ENQUEUE, i, i % 4, i / 4);
+    }
+
+    /**
+     * Accept latency per policy: WINDOW PROPOSEs are logged, then the
+     * replies are released (after the sync of the policy)
+     */
+    static void reportAcceptLatency(File dir) throws IOException {
+        System.out.println("┌────────────────────────────────────────────────────────┐");
+        System.out.println("│ Accept latency per fsync policy                        │");
+        System.out.println("└────────────────────────────────────────────────────────┘");
+        int accepts = 2000;
+        for (MultiPaxos_AcceptorLog.FsyncPolicy policy : MultiPaxos_AcceptorLog.FsyncPolicy.values()) {
+            File file = new File(dir, "latency-" + policy + ".log");
+            long[] latency = new long[accepts];
+            long t0 = System.nanoTime();
+            try (MultiPaxos_AcceptorLog log = new MultiPaxos_AcceptorLog(file, policy)) {
+                long[] start = new long[WINDOW];
+                for (int i = 0; i < accepts; i += WINDOW) {
+                    for (int j = 0; j < WINDOW; j++) {
+                        start[j] = System.nanoTime();
+                        log.appendAccept(i + j, 1, op(i + j));
+                    }
+                    log.sync();
+                    long released = System.nanoTime();
+                    for (int j = 0; j < WINDOW; j++) {
+                        latency[i + j] = released - start[j];
+                    }
+                }
+                long total = System.nanoTime() - t0;
+                Arrays.sort(latency);
+                System.out.printf("  %-6s mean %8.1f us   p99 %8.1f us   %6.0f accepts/s   %d fsyncs%n", policy,
+                        Arrays.stream(latency).average().getAsDouble() / 1000, latency[accepts * 99 / 100] / 1000.0,
+                        accepts * 1e9 / total, log.fsyncs());
+            }
+        }
+        System.out.println();
+    }
+
+    /**
+     * Child JVM: log accepts and report each group once it may be answered
+     */
+    static void runChild(File file, MultiPaxos_AcceptorLog.FsyncPolicy policy) throws IOException {
+        try (MultiPaxos_AcceptorLog log = new MultiPaxos_AcceptorLog(file, policy)) {
+            log.appendPromise(1);
+            log.sync();
+            for (int i = 0;; i += WINDOW) {
+                for (int j = 0; j < WINDOW; j++) {
+                    log.appendAccept(i + j, 1, op(i + j));
+                }
+                log.sync();
+                System.out.println("ACKED " + (i + WINDOW - 1));
+                System.out.flush();
+            }
+        }
+    }
+
+    /**
+     * Kill a child JVM while it logs accepts; every accept it acknowledged
+     * must be recovered
+     */
+    static boolean testKill(File dir, MultiPaxos_AcceptorLog.FsyncPolicy policy) throws Exception {
+        System.out.println("┌────────────────────────────────────────────────────────┐");
+        System.out.printf("│ Crash recovery after SIGKILL (%-6s)                   │%n", policy);
+        System.out.println("└────────────────────────────────────────────────────────┘");
+        File file = new File(dir, "kill-" + policy + ".log");
+        Process child = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"),
+                TestMultiPaxosDurability.class.getName(), "child", file.getPath(), policy.name())
+                .redirectErrorStream(true).start();
+
+        int acked = -1;
+        BufferedReader out = new BufferedReader(new InputStreamReader(child.getInputStream()));
+        String line;
+        while ((line = out.readLine()) != null) {
+            if (line.startsWith("ACKED ")) {
+                acked = Integer.parseInt(line.substring(6));
+                if (acked >= 1000) {
+                    break;
+                }
+            }
+        }
+        child.destroyForcibly();
+        child.waitFor(10, TimeUnit.SECONDS);
+
+        boolean passed = acked >= 0;
+        try (MultiPaxos_AcceptorLog log = new MultiPaxos_AcceptorLog(file, policy)) {
+            for (int i = 0; i <= acked && passed; i++) {
+                if (!op(i).equals(log.acceptedValues().get(i)) || log.acceptedRounds().get(i) != 1) {
+                    System.out.println("  ❌ acknowledged accept " + i + " lost");
+                    passed = false;
+                }
+            }
+            passed &= log.promisedRound() == 1;
+            System.out.println("  Child acknowledged accepts up to logIndex " + acked + ", " +
+                    log.acceptedValues().size() + " recovered");
+        }
+        System.out.println(passed ? "✅ Kill test (" + policy + ") PASSED\n" : "❌ Kill test (" + policy + ") FAILED\n");
+        return passed;
+    }
+
+    /**
+     * A record cut in the middle (crash during a write) is dropped, and the
+     * log can be appended to again
+     */
+    static boolean testTornRecord(File dir) throws IOException {
+        System.out.println("┌────────────────────────────────────────────────────────┐");
+        System.out.println("│ Torn record at the end of the log                      │");
+        System.out.println("└────────────────────────────────────────────────────────┘");
+        File file = new File(dir, "torn.log");
+        try (MultiPaxos_AcceptorLog log = new MultiPaxos_AcceptorLog(file, MultiPaxos_AcceptorLog.FsyncPolicy.GROUP)) {
+            for (int i = 0; i < 100; i++) {
+                log.appendAccept(i, 2, op(i));
+            }
+        }
+        long complete = file.length();
+        try (MultiPaxos_AcceptorLog log = new MultiPaxos_AcceptorLog(file, MultiPaxos_AcceptorLog.FsyncPolicy.GROUP)) {
+            log.appendAccept(100, 2, op(100));
+        }
+        // Cut the last record in the middle
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(complete + (file.length() - complete) / 2);
+        }
+
+        boolean passed;
+        try (MultiPaxos_AcceptorLog log = new MultiPaxos_AcceptorLog(file, MultiPaxos_AcceptorLog.FsyncPolicy.GROUP)) {
+            passed = log.acceptedValues().size() == 100 && !log.acceptedValues().containsKey(100)
+                    && file.length() == complete;
+            log.appendAccept(100, 3, op(100));
+        }
+        try (MultiPaxos_AcceptorLog log = new MultiPaxos_AcceptorLog(file, MultiPaxos_AcceptorLog.FsyncPolicy.GROUP)) {
+            passed &= log.acceptedValues().size() == 101 && log.acceptedRounds().get(100) == 3;
+            System.out.println("  " + log.acceptedValues().size() + " accepts recovered after dropping the torn one");
+        }
+        System.out.println(passed ? "✅ Torn record test PASSED\n" : "❌ Torn record test FAILED\n");
+        return passed;
+    }
+
+    /**
+     * Stop a DDS and start a new one over the same acceptor logs: the
+     * checkpoint and the accepts after it give back the whole queue
+     */
+    static boolean testRestart(File dir) throws Exception {
+        System.out.println("┌────────────────────────────────────────────────────────┐");
+        System.out.println("│ Restart of the whole DDS (3 replicas)                  │");
+        System.out.println("└────────────────────────────────────────────────────────┘");
+        int n = 20;
+
+        MultiPaxos_DDS dds = new MultiPaxos_DDS(3);
+        dds.setDurability(dir, MultiPaxos_AcceptorLog.FsyncPolicy.GROUP);
+        dds.setCheckpointInterval(8);
+        dds.setBatching(1, 0);
+        MultiPaxos_ClientSession session = dds.openSession(0);
+        dds.start();
+        for (int i = 0; i < n; i++) {
+            session.enqueue(i).get(5, TimeUnit.SECONDS);
+        }
+        Thread.sleep(300);
+        dds.stopReplicas();
+        session.close();
+
+        MultiPaxos_DDS restarted = new MultiPaxos_DDS(3);
+        restarted.setDurability(dir, MultiPaxos_AcceptorLog.FsyncPolicy.GROUP);
+        restarted.setCheckpointInterval(8);
+        MultiPaxos_ClientSession reader = restarted.openSession(1);
+        restarted.start();
+        List<Integer> dequeued = new ArrayList<>();
+        boolean passed = true;
+        try {
+            for (int i = 0; i < n; i++) {
+                MultiPaxos_Message response = (MultiPaxos_Message) reader.dequeue().get(5, TimeUnit.SECONDS);
+                dequeued.add(response.dequeueResult);
+            }
+        } catch (Exception e) {
+            System.out.println("  ❌ no response after the restart: " + e);
+            passed = false;
+        }
+        restarted.stopReplicas();
+        reader.close();
+
+        for (int i = 0; i < n && passed; i++) {
+            passed = dequeued.size() == n && Integer.valueOf(i).equals(dequeued.get(i));
+        }
+        System.out.println("  Dequeued after the restart: " + dequeued);
+        System.out.println(passed ? "✅ Restart test PASSED\n" : "❌ Restart test FAILED\n");
+        return passed;
+    }
+}
@@ -25,7 +25,6 @@ public class Testing
         System.out.println("Client 0 sending read request");
         r0 = responseChannel.receive().val;
         System.out.println("Client 0 receiving " + r0);
-        commandChannel.send(new Message(Message.MessageType.CLIENT_STOP));
         System.out.println("Client 0 done");
       }
     });
@@ -42,7 +41,6 @@ public class Testing
         System.out.println("Client 1 sending read request");
         r1 = responseChannel.receive().val;
         System.out.println("Client 1 receiving " + r1);
-        commandChannel.send(new Message(Message.MessageType.CLIENT_STOP));
         System.out.println("Client 1 done");
       }
     });
@@ -52,6 +50,10 @@ public class Testing
     dds.start();
     client1.join();
     client2.join();
+    // stop only once both clients are done: the gateway stops forwarding at
+    // the first CLIENT_STOP, so a client stopping on its own would leave the
+    // requests the other client has not sent yet unanswered
+    dds.connect(2,new ChannelFIFO()).send(new Message(Message.MessageType.CLIENT_STOP));
     dds.join();
 
     results.add("["+r0+","+r1+"]");
@@ -3,10 +3,14 @@ package myDDS;
 /**
  * Timestamp for ABD algorithm: (counter, replicaId)
  * Used to track version of data values
+ * Immutable: instances can be shared
  */
 public class Timestamp implements Comparable<Timestamp> {
-    public int counter;
-    public int replicaId;
+    // Timestamp of a register never written
+    public static final Timestamp ZERO = new Timestamp(0, 0);
+
+    public final int counter;
+    public final int replicaId;
 
     public Timestamp(int counter, int replicaId) {
         this.counter = counter;